@@ -19,3 +19,24 @@ def external_plugin_deps():
         name = "jaxb-runtime",
         artifact = "org.glassfish.jaxb:jaxb-runtime:2.3.3",
     )
+
+    # Benchmarks only.
+    maven_jar(
+        name = "jmh-core",
+        artifact = "org.openjdk.jmh:jmh-core:1.37",
+    )
+
+    maven_jar(
+        name = "jmh-generator-annprocess",
+        artifact = "org.openjdk.jmh:jmh-generator-annprocess:1.37",
+    )
+
+    maven_jar(
+        name = "jopt-simple",
+        artifact = "net.sf.jopt-simple:jopt-simple:5.0.4",
+    )
+
+    maven_jar(
+        name = "commons-math3",
+        artifact = "org.apache.commons:commons-math3:3.6.1",
+    )
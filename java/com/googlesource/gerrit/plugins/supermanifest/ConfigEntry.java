@@ -39,6 +39,7 @@ public class ConfigEntry {
   final String srcRef;
   final URI baseUri;
   final ToolType toolType;
+  final RepoEngine repoEngine;
   final String xmlPath;
   final Project.NameKey destRepoKey;
   final String repoGroups;
@@ -93,6 +94,21 @@ public class ConfigEntry {
             String.format("entry %s has invalid toolType: %s", name, toolType));
     }
 
+    String repoEngine = nullToEmpty(cfg.getString(SECTION_NAME, name, "repoEngine"));
+
+    switch (repoEngine) {
+      case "":
+      case "jgit":
+        this.repoEngine = RepoEngine.JGit;
+        break;
+      case "native":
+        this.repoEngine = RepoEngine.Native;
+        break;
+      default:
+        throw new ConfigInvalidException(
+            String.format("entry %s has invalid repoEngine: %s", name, repoEngine));
+    }
+
     if (destRef.contains("*")) {
       srcRef = "";
     } else {
@@ -191,6 +207,11 @@ public class ConfigEntry {
     return toolType;
   }
 
+  /** @return how superprojects are written for {@code toolType = repo} */
+  public RepoEngine getRepoEngine() {
+    return repoEngine;
+  }
+
   /** @return the xmlPath */
   public String getXmlPath() {
     return xmlPath;
@@ -232,6 +253,14 @@ public class ConfigEntry {
     return destBranch;
   }
 
+  /**
+   * @param updatedRef the source ref, expected to start with refs/heads
+   * @return the destination repository and short-named branch written for {@code updatedRef}
+   */
+  public String getActualDest(String updatedRef) {
+    return destRepoKey + ":" + getActualDestBranch(updatedRef);
+  }
+
   public boolean matchesSource(String project, String refName) {
     if (!srcRepoKey.get().equals(project)) {
       return false;
@@ -274,4 +303,11 @@ public class ConfigEntry {
     Repo,
     Jiri
   }
+
+  enum RepoEngine {
+    /** JGit's RepoCommand. */
+    JGit,
+    /** The plugin's own writer, see {@link RepoSuperprojectWriter}. */
+    Native
+  }
 }
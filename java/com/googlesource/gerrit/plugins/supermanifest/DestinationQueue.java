@@ -0,0 +1,85 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the updates of each destination one at a time, in the order they were submitted.
+ *
+ * <p>The updates of a destination are chained: each one is handed to its executor once the
+ * previous one is done, whether that one failed or not. A destination is only tracked while it has
+ * updates queued or running.
+ *
+ * <p>This class is thread-safe.
+ */
+class DestinationQueue {
+  interface Update {
+    void run() throws Exception;
+  }
+
+  private static final CompletableFuture<Void> IDLE = CompletableFuture.completedFuture(null);
+
+  // Last update submitted for each destination.
+  private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+
+  /**
+   * Runs {@code update} on {@code executor} after the updates of {@code destination} submitted
+   * before it.
+   *
+   * @return completes once {@code update} is done, exceptionally if it threw or if {@code executor}
+   *     rejected it
+   */
+  CompletableFuture<Void> submit(String destination, Executor executor, Update update) {
+    CompletableFuture<Void> submitted = new CompletableFuture<>();
+    CompletableFuture<Void> done;
+    synchronized (tails) {
+      CompletableFuture<Void> previous = tails.getOrDefault(destination, IDLE);
+      done =
+          CompletableFuture.allOf(previous.exceptionally(e -> null), submitted)
+              .thenRunAsync(() -> run(update), executor);
+      tails.put(destination, done);
+    }
+    CompletableFuture<Void> forgotten =
+        done.whenComplete(
+            (r, e) -> {
+              synchronized (tails) {
+                tails.remove(destination, done);
+              }
+            });
+    // Released outside of the lock, as a direct executor runs the update right away.
+    submitted.complete(null);
+    return forgotten;
+  }
+
+  /** @return how many destinations have updates queued or running */
+  int size() {
+    synchronized (tails) {
+      return tails.size();
+    }
+  }
+
+  private static void run(Update update) {
+    try {
+      update.run();
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    }
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+/**
+ * Writes a {@code .gitmodules} file as it goes, one submodule at a time.
+ *
+ * <p>The bytes are the same as {@link org.eclipse.jgit.lib.Config#toText} of a {@code Config}
+ * filled with {@code setString} in the same order, without building the {@code Config} and the
+ * whole file as a string. Submodule names are escaped the way git reads subsection names: only
+ * quotes and backslashes are escaped, and newlines are rejected. Unlike {@code Config}, sections
+ * are not merged: each submodule name must be written once, in the order the file should list
+ * them.
+ */
+class GitmodulesWriter {
+  /** Gives {@link ObjectInserter} the written bytes without copying them. */
+  private static class Buffer extends ByteArrayOutputStream {
+    ObjectId insert(ObjectInserter inserter) throws IOException {
+      return inserter.insert(Constants.OBJ_BLOB, buf, 0, count);
+    }
+  }
+
+  private final Buffer buffer = new Buffer();
+  private final Writer out = new OutputStreamWriter(buffer, UTF_8);
+
+  /** Starts the section of the submodule called {@code name}. */
+  void submodule(String name) throws IOException {
+    out.write("[submodule \"");
+    writeSubsection(name);
+    out.write("\"]\n");
+  }
+
+  /** Writes {@code key} of the current submodule. */
+  void set(String key, String value) throws IOException {
+    out.write('\t');
+    out.write(key);
+    if (value == null) {
+      out.write(" =\n");
+      return;
+    }
+    out.write(" = ");
+    boolean quote = needsQuotes(value);
+    if (quote) {
+      out.write('"');
+    }
+    writeValue(value);
+    if (quote) {
+      out.write('"');
+    }
+    out.write('\n');
+  }
+
+  void set(String key, boolean value) throws IOException {
+    set(key, value ? "true" : "false");
+  }
+
+  /**
+   * Inserts the file written so far as a blob.
+   *
+   * @return the id of the blob
+   */
+  ObjectId insert(ObjectInserter inserter) throws IOException {
+    out.flush();
+    return buffer.insert(inserter);
+  }
+
+  private static boolean needsQuotes(String value) {
+    if (value.isEmpty()) {
+      return false;
+    }
+    if (value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ') {
+      return true;
+    }
+    return value.indexOf('#') >= 0 || value.indexOf(';') >= 0;
+  }
+
+  private void writeSubsection(String name) throws IOException {
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      switch (c) {
+        case '\0':
+          throw new IllegalArgumentException(JGitText.get().configSubsectionContainsNullByte);
+        case '\n':
+          throw new IllegalArgumentException(JGitText.get().configSubsectionContainsNewline);
+        case '\\':
+        case '"':
+          out.write('\\');
+          out.write(c);
+          break;
+        default:
+          out.write(c);
+      }
+    }
+  }
+
+  private void writeValue(String value) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\0':
+          throw new IllegalArgumentException(JGitText.get().configValueContainsNullByte);
+        case '\n':
+          out.write("\\n");
+          break;
+        case '\t':
+          out.write("\\t");
+          break;
+        case '\b':
+          out.write("\\b");
+          break;
+        case '\\':
+          out.write("\\\\");
+          break;
+        case '"':
+          out.write("\\\"");
+          break;
+        default:
+          out.write(c);
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@ import static com.google.gerrit.entities.RefNames.REFS_HEADS;
 
 import com.google.gerrit.entities.Project;
 import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.GerritRemoteReader;
+import com.googlesource.gerrit.plugins.supermanifest.UpdateStats.Phase;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
@@ -25,7 +26,9 @@ import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLInputFactory;
@@ -34,6 +37,7 @@ import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.stream.StreamSource;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.gitrepo.RepoCommand.RemoteFile;
 import org.eclipse.jgit.lib.Repository;
 
 class JiriManifestParser {
@@ -64,30 +68,27 @@ class JiriManifestParser {
     String projectKey;
   }
 
-  static class RepoMap<K, V extends Repository> extends HashMap<K, V> implements AutoCloseable {
-    private static final long serialVersionUID = 1L;
-
-    @Override
-    public void close() {
-      for (Repository repo : this.values()) {
-        repo.close();
-      }
-    }
-  }
-
   public static JiriProjects getProjects(
       GerritRemoteReader reader, String repoKey, String ref, String manifest)
       throws ConfigInvalidException, IOException {
 
-    try (RepoMap<String, Repository> repoMap = new RepoMap<>()) {
-      repoMap.put(repoKey, reader.openRepository(repoKey));
-      Queue<ManifestItem> q = new LinkedList<>();
-      q.add(new ManifestItem(repoKey, manifest, ref, "", false));
-      HashMap<String, HashSet<String>> processedRepoFiles = new HashMap<>();
-      HashMap<String, JiriProjects.Project> projectMap = new HashMap<>();
-
-      while (q.size() != 0) {
-        ManifestItem mi = q.remove();
+    // The repositories belong to the reader, which closes them after its session.
+    Map<String, Repository> repoMap = new HashMap<>();
+    repoMap.put(repoKey, reader.openRepository(repoKey));
+    Queue<ManifestItem> q = new LinkedList<>();
+    q.add(new ManifestItem(repoKey, manifest, ref, "", false));
+    HashMap<String, HashSet<String>> processedRepoFiles = new HashMap<>();
+    HashMap<String, JiriProjects.Project> projectMap = new HashMap<>();
+
+    UpdateStats stats = reader.getStats();
+    // Local imports read ahead, by repoKey, ref and path.
+    Map<String, byte[]> prefetched = new HashMap<>();
+    boolean imported = false;
+    while (q.size() != 0) {
+      ManifestItem mi = q.remove();
+      JiriManifest m;
+      // Everything after the root manifest is an import.
+      try (UpdateStats.Timer t = imported ? stats.time(Phase.IMPORTS) : UpdateStats.NOT_TIMED) {
         Repository repo = repoMap.get(mi.repoKey);
         if (repo == null) {
           repo = reader.openRepository(mi.repoKey);
@@ -102,84 +103,125 @@ class JiriManifestParser {
           continue;
         }
         processedFiles.add(mi.manifest);
-        JiriManifest m;
         try {
-          m = parseManifest(repo, mi.ref, mi.manifest);
+          m =
+              parseManifest(
+                  reader.getSession(),
+                  repo,
+                  mi.ref,
+                  mi.manifest,
+                  prefetched.remove(mi.repoKey + " " + mi.ref + ":" + mi.manifest),
+                  stats,
+                  imported);
         } catch (JAXBException | XMLStreamException e) {
           throw new ConfigInvalidException("XML parse error", e);
         }
+      }
+      imported = true;
 
-        for (JiriProjects.Project project : m.projects.getProjects()) {
-          project.fillDefault();
-          if (mi.revisionPinned && project.Key().equals(mi.projectKey)) {
-            project.setRevision(mi.ref);
-          }
-          if (projectMap.containsKey(project.Key())) {
-            if (!projectMap.get(project.Key()).equals(project))
-              throw new ConfigInvalidException(
-                  String.format(
-                      "Duplicate conflicting project %s in manifest %s\n%s\n%s",
-                      project.Key(),
-                      mi.manifest,
-                      project.toString(),
-                      projectMap.get(project.Key()).toString()));
-          } else {
-            projectMap.put(project.Key(), project);
-          }
+      for (JiriProjects.Project project : m.projects.getProjects()) {
+        project.fillDefault();
+        if (mi.revisionPinned && project.Key().equals(mi.projectKey)) {
+          project.setRevision(mi.ref);
+        }
+        if (projectMap.containsKey(project.Key())) {
+          if (!projectMap.get(project.Key()).equals(project))
+            throw new ConfigInvalidException(
+                String.format(
+                    "Duplicate conflicting project %s in manifest %s\n%s\n%s",
+                    project.Key(),
+                    mi.manifest,
+                    project.toString(),
+                    projectMap.get(project.Key()).toString()));
+        } else {
+          projectMap.put(project.Key(), project);
         }
+      }
 
-        URI parentURI;
+      URI parentURI;
+      try {
+        parentURI = new URI(mi.manifest);
+      } catch (URISyntaxException e) {
+        throw new ConfigInvalidException("Invalid parent URI", e);
+      }
+      Set<String> localPaths = new HashSet<>();
+      for (JiriManifest.LocalImport l : m.imports.getLocalImports()) {
+        ManifestItem tw =
+            new ManifestItem(
+                mi.repoKey,
+                parentURI.resolve(l.getFile()).getPath(),
+                mi.ref,
+                mi.projectKey,
+                mi.revisionPinned);
+        q.add(tw);
+        if (!processedRepoFiles.get(mi.repoKey).contains(tw.manifest)) {
+          localPaths.add(tw.manifest);
+        }
+      }
+      // Local imports are files of the same commit, so they are all found in one tree walk.
+      if (localPaths.size() > 1) {
+        Map<String, RemoteFile> files;
+        try (UpdateStats.Timer t = stats.time(Phase.IMPORTS)) {
+          files = reader.getSession().readAll(repoMap.get(mi.repoKey), mi.ref, localPaths);
+        }
+        for (Map.Entry<String, RemoteFile> e : files.entrySet()) {
+          prefetched.put(mi.repoKey + " " + mi.ref + ":" + e.getKey(), e.getValue().getContents());
+        }
+      }
+
+      for (JiriManifest.Import i : m.imports.getImports()) {
+        i.fillDefault();
+        URI uri;
         try {
-          parentURI = new URI(mi.manifest);
+          uri = new URI(i.getRemote());
         } catch (URISyntaxException e) {
-          throw new ConfigInvalidException("Invalid parent URI", e);
+          throw new ConfigInvalidException("Invalid URI", e);
         }
-        for (JiriManifest.LocalImport l : m.imports.getLocalImports()) {
-          ManifestItem tw =
-              new ManifestItem(
-                  mi.repoKey,
-                  parentURI.resolve(l.getFile()).getPath(),
-                  mi.ref,
-                  mi.projectKey,
-                  mi.revisionPinned);
-          q.add(tw);
+        String iRepoKey = Project.nameKey(StringUtils.strip(uri.getPath(), "/")).toString();
+        String iRef = i.getRevision();
+        boolean revisionPinned = true;
+        if (iRef.isEmpty()) {
+          iRef = REFS_HEADS + i.getRemotebranch();
+          revisionPinned = false;
         }
 
-        for (JiriManifest.Import i : m.imports.getImports()) {
-          i.fillDefault();
-          URI uri;
-          try {
-            uri = new URI(i.getRemote());
-          } catch (URISyntaxException e) {
-            throw new ConfigInvalidException("Invalid URI", e);
-          }
-          String iRepoKey = Project.nameKey(StringUtils.strip(uri.getPath(), "/")).toString();
-          String iRef = i.getRevision();
-          boolean revisionPinned = true;
-          if (iRef.isEmpty()) {
-            iRef = REFS_HEADS + i.getRemotebranch();
-            revisionPinned = false;
-          }
-
-          ManifestItem tmi =
-              new ManifestItem(iRepoKey, i.getManifest(), iRef, i.Key(), revisionPinned);
-          q.add(tmi);
-        }
+        ManifestItem tmi =
+            new ManifestItem(iRepoKey, i.getManifest(), iRef, i.Key(), revisionPinned);
+        q.add(tmi);
       }
-      return new JiriProjects(projectMap.values().toArray(new JiriProjects.Project[0]));
     }
+    return new JiriProjects(projectMap.values().toArray(new JiriProjects.Project[0]));
   }
 
-  private static JiriManifest parseManifest(Repository repo, String ref, String file)
+  /**
+   * @param prefetched the content of the manifest, if it was already read
+   * @param imported whether the caller times the read and parse as {@link Phase#IMPORTS}
+   */
+  private static JiriManifest parseManifest(
+      ReadSession session,
+      Repository repo,
+      String ref,
+      String file,
+      byte[] prefetched,
+      UpdateStats stats,
+      boolean imported)
       throws JAXBException, IOException, XMLStreamException {
-    byte[] b = Utils.readBlob(repo, ref + ":" + file);
-    JAXBContext jc = JAXBContext.newInstance(JiriManifest.class);
+    byte[] b;
+    try (UpdateStats.Timer t =
+        imported ? UpdateStats.NOT_TIMED : stats.time(Phase.MANIFEST_READ)) {
+      b = prefetched != null ? prefetched : session.read(repo, ref, file).getContents();
+    }
+    stats.count(UpdateStats.Counter.MANIFEST_FILES, 1);
+    try (UpdateStats.Timer t = imported ? UpdateStats.NOT_TIMED : stats.time(Phase.PARSE)) {
+      JAXBContext jc = JAXBContext.newInstance(JiriManifest.class);
 
-    XMLInputFactory inf = XMLInputFactory.newFactory();
-    inf.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
-    inf.setProperty(XMLInputFactory.SUPPORT_DTD, false);
-    XMLStreamReader sr = inf.createXMLStreamReader(new StreamSource(new ByteArrayInputStream(b)));
+      XMLInputFactory inf = XMLInputFactory.newFactory();
+      inf.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+      inf.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      XMLStreamReader sr =
+          inf.createXMLStreamReader(new StreamSource(new ByteArrayInputStream(b)));
 
-    return (JiriManifest) jc.createUnmarshaller().unmarshal(sr);
+      return (JiriManifest) jc.createUnmarshaller().unmarshal(sr);
+    }
   }
 }
@@ -16,6 +16,8 @@ package com.googlesource.gerrit.plugins.supermanifest;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Objects;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
@@ -35,7 +37,12 @@ class JiriProjects {
   }
 
   public void sortByPath() {
-    Arrays.sort(projects, new SortbyPath());
+    // One key per project, rather than two per comparison.
+    Map<Project, String> keys = new IdentityHashMap<>(projects.length);
+    for (Project p : projects) {
+      keys.put(p, StringUtil.stripAndAddCharsAtEnd(p.getPath(), "/"));
+    }
+    Arrays.sort(projects, Comparator.comparing(keys::get));
   }
 
   public String toSubmodules() {
@@ -187,13 +194,4 @@ class JiriProjects {
       this.revision = revision;
     }
   }
-
-  static class SortbyPath implements Comparator<Project> {
-    @Override
-    public int compare(Project a, Project b) {
-      String p1 = StringUtil.stripAndAddCharsAtEnd(a.getPath(), "/");
-      String p2 = StringUtil.stripAndAddCharsAtEnd(b.getPath(), "/");
-      return p1.compareTo(p2);
-    }
-  }
 }
@@ -2,30 +2,30 @@ package com.googlesource.gerrit.plugins.supermanifest;
 
 import static com.google.gerrit.entities.RefNames.REFS_HEADS;
 import static com.google.gerrit.entities.RefNames.REFS_TAGS;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.Lists;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.config.DownloadScheme;
 import com.google.gerrit.server.plugincontext.PluginMapContext;
 import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.GerritRemoteReader;
+import com.googlesource.gerrit.plugins.supermanifest.UpdateStats.Counter;
+import com.googlesource.gerrit.plugins.supermanifest.UpdateStats.Phase;
 import java.io.IOException;
 import java.net.URI;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
 import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
-import org.eclipse.jgit.dircache.DirCache;
-import org.eclipse.jgit.dircache.DirCacheBuilder;
-import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.gitrepo.internal.RepoText;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.CommitBuilder;
-import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
@@ -58,121 +58,208 @@ class JiriUpdater implements SubModuleUpdater {
     logger.atWarning().log("%s : %s", canonicalWebUrl, String.format(formatStr, args));
   }
 
-  private void updateSubmodules(
-      Repository repo,
-      String targetRef,
-      URI targetURI,
-      JiriProjects projects,
-      GerritRemoteReader reader)
-      throws IOException, GitAPIException {
-    DirCache index = DirCache.newInCore();
-    DirCacheBuilder builder = index.builder();
-    ObjectInserter inserter = repo.newObjectInserter();
-    try (RevWalk rw = new RevWalk(repo)) {
-      Config cfg = new Config();
-      projects.sortByPath();
-      String parent = null;
-      for (JiriProjects.Project proj : projects.getProjects()) {
-        String path = proj.getPath();
-        String nameUri = proj.getRemote();
-        if (parent != null) {
-          String p1 = StringUtil.stripAndAddCharsAtEnd(path, "/");
-          String p2 = StringUtil.stripAndAddCharsAtEnd(parent, "/");
-          if (p1.startsWith(p2)) {
-            warn(
-                "Skipping project %s(%s) as git doesn't support nested submodules",
-                proj.getName(), path);
-            continue;
-          }
-        }
+  /** A project of the manifest, resolved to what will be written to the superproject. */
+  private static class Submodule {
+    final String path;
+    final ObjectId objectId;
+    final String url;
+    // "branch" or "ref" if the ref should be recorded in .gitmodules, null otherwise.
+    final String refField;
+    final String ref;
+    final boolean shallow;
+
+    Submodule(
+        String path, ObjectId objectId, String url, String refField, String ref, boolean shallow) {
+      this.path = path;
+      this.objectId = objectId;
+      this.url = url;
+      this.refField = refField;
+      this.ref = ref;
+      this.shallow = shallow;
+    }
+  }
 
-        ObjectId objectId;
-        String ref = proj.getRef();
+  private List<Submodule> resolveSubmodules(
+      URI targetURI, JiriProjects projects, GerritRemoteReader reader) throws GitAPIException {
+    List<Submodule> submodules = new ArrayList<>();
+    LocalHosts localHosts = new LocalHosts();
+    // Several projects can be checkouts of the same repository.
+    Map<String, URI> relativized = new HashMap<>();
+    projects.sortByPath();
+    SubmodulePaths paths = new SubmodulePaths();
+    int nested = 0;
+    for (JiriProjects.Project proj : projects.getProjects()) {
+      String path = proj.getPath();
+      String nameUri = proj.getRemote();
+      if (!paths.accepts(path)) {
+        warn(
+            "Skipping project %s(%s) as git doesn't support nested submodules",
+            proj.getName(), path);
+        nested++;
+        continue;
+      }
 
-        if (ObjectId.isId(ref)) {
-          objectId = ObjectId.fromString(ref);
-        } else {
-          objectId = reader.sha1(nameUri, ref);
-          if (objectId == null) {
-            warn("failed to get ref '%s' for '%s', skipping", ref, nameUri);
-            continue;
-          }
-        }
+      ObjectId objectId;
+      String ref = proj.getRef();
 
-        // can be branch, tag or SHA1 (objectId)
-        if (!ObjectId.isId(ref)) {
-          // "branch" field is only for non-tag references.
-          // Keep tags in "ref" field as hint for other tools.
-          String field = ref.startsWith(REFS_TAGS) ? "ref" : "branch";
-          cfg.setString("submodule", path, field, ref);
+      if (ObjectId.isId(ref)) {
+        objectId = ObjectId.fromString(ref);
+      } else {
+        objectId = reader.sha1(nameUri, ref);
+        if (objectId == null) {
+          warn("failed to get ref '%s' for '%s', skipping", ref, nameUri);
+          continue;
         }
+      }
 
-        if (proj.getHistorydepth() > 0) {
-          cfg.setBoolean("submodule", path, "shallow", true);
-          if (proj.getHistorydepth() != 1) {
-            warn(
-                "Project %s(%s) has historydepth other than 1. Submodule only support shallow of depth 1.",
-                proj.getName(), proj.getPath());
-          }
-        }
+      // can be branch, tag or SHA1 (objectId)
+      String refField = null;
+      if (!ObjectId.isId(ref)) {
+        // "branch" field is only for non-tag references.
+        // Keep tags in "ref" field as hint for other tools.
+        refField = ref.startsWith(REFS_TAGS) ? "ref" : "branch";
+      }
 
-        URI submodUrl = URI.create(nameUri);
+      if (proj.getHistorydepth() > 1) {
+        warn(
+            "Project %s(%s) has historydepth other than 1. Submodule only support shallow of depth 1.",
+            proj.getName(), proj.getPath());
+      }
 
-        // check if repo is local by matching hostnames
-        String repoName = submodUrl.getPath();
-        while (repoName.startsWith("/")) {
-          repoName = repoName.substring(1);
-        }
-        URI localURI = getLocalURI(repoName);
-        if (localURI != null && localURI.getHost().equals(submodUrl.getHost())) {
-          submodUrl = relativize(targetURI, URI.create(repoName));
-        }
+      URI submodUrl = URI.create(nameUri);
 
-        cfg.setString("submodule", path, "path", path);
-        cfg.setString("submodule", path, "url", submodUrl.toString());
+      // check if repo is local by matching hostnames
+      String repoName = submodUrl.getPath();
+      while (repoName.startsWith("/")) {
+        repoName = repoName.substring(1);
+      }
+      if (localHosts.isLocal(repoName, submodUrl)) {
+        submodUrl =
+            relativized.computeIfAbsent(repoName, n -> relativize(targetURI, URI.create(n)));
+      }
 
-        // create gitlink
-        DirCacheEntry dcEntry = new DirCacheEntry(path);
-        dcEntry.setObjectId(objectId);
-        dcEntry.setFileMode(FileMode.GITLINK);
-        builder.add(dcEntry);
-        parent = path;
+      submodules.add(
+          new Submodule(
+              path,
+              objectId,
+              submodUrl.toString(),
+              refField,
+              ref,
+              proj.getHistorydepth() > 0));
+      paths.add(path);
+    }
+    reader.getStats().count(Counter.SUBMODULES, submodules.size());
+    reader.getStats().count(Counter.NESTED_PROJECTS, nested);
+    return submodules;
+  }
+
+  private static String digest(List<Submodule> submodules) {
+    SuperprojectDigest digest = new SuperprojectDigest();
+    for (Submodule s : submodules) {
+      String branch = s.refField != null ? s.refField + "=" + s.ref : null;
+      digest.addSubmodule(s.path, s.path, s.url, s.objectId, branch, null, s.shallow);
+    }
+    return digest.compute();
+  }
+
+  /**
+   * Writes the superproject tree and commit for {@code submodules}. Only the trees that differ from
+   * the tree of {@code headId} are inserted.
+   */
+  private ObjectId insertCommit(
+      RevWalk rw,
+      ObjectInserter inserter,
+      List<Submodule> submodules,
+      ObjectId headId,
+      String digest,
+      UpdateStats stats)
+      throws IOException {
+    SuperprojectTreeWriter tree = new SuperprojectTreeWriter(rw.getObjectReader(), inserter);
+    GitmodulesWriter gitmodules = new GitmodulesWriter();
+    for (Submodule s : submodules) {
+      gitmodules.submodule(s.path);
+      if (s.refField != null) {
+        gitmodules.set(s.refField, s.ref);
       }
+      if (s.shallow) {
+        gitmodules.set("shallow", true);
+      }
+      gitmodules.set("path", s.path);
+      gitmodules.set("url", s.url);
 
-      String content = cfg.toText();
+      tree.add(s.path, FileMode.GITLINK, s.objectId);
+    }
 
-      // create a new DirCacheEntry for .gitmodules file.
-      final DirCacheEntry dcEntry = new DirCacheEntry(Constants.DOT_GIT_MODULES);
-      ObjectId objectId = inserter.insert(Constants.OBJ_BLOB, content.getBytes(UTF_8));
-      dcEntry.setObjectId(objectId);
-      dcEntry.setFileMode(FileMode.REGULAR_FILE);
-      builder.add(dcEntry);
+    ObjectId objectId = gitmodules.insert(inserter);
+    tree.add(Constants.DOT_GIT_MODULES, FileMode.REGULAR_FILE, objectId);
+
+    SuperManifestEvents.TreeBuildEvent event = new SuperManifestEvents.TreeBuildEvent();
+    event.begin();
+    ObjectId treeId = tree.write(headId != null ? rw.parseCommit(headId).getTree() : null);
+    event.end();
+    if (event.shouldCommit()) {
+      event.destination = stats.getDestination();
+      event.submodules = submodules.size();
+      event.trees = tree.getTrees();
+      event.treesInserted = tree.getTreesWritten();
+      event.commit();
+    }
 
-      builder.finish();
-      ObjectId treeId = index.writeTree(inserter);
+    // Create a Commit object, populate it and write it
+    CommitBuilder commit = new CommitBuilder();
+    commit.setTreeId(treeId);
+    if (headId != null) commit.setParentIds(headId);
+    PersonIdent author =
+        new PersonIdent(
+            serverIdent.getName(),
+            serverIdent.getEmailAddress(),
+            new Date(),
+            serverIdent.getTimeZone());
+    commit.setAuthor(author);
+    commit.setCommitter(author);
+    commit.setMessage(SuperprojectDigest.withFooter(RepoText.get().repoCommitMessage, digest));
+
+    return inserter.insert(commit);
+  }
 
-      // Create a Commit object, populate it and write it
+  private void updateSubmodules(
+      Repository repo,
+      String targetRef,
+      URI targetURI,
+      JiriProjects projects,
+      GerritRemoteReader reader)
+      throws IOException, GitAPIException {
+    UpdateStats stats = reader.getStats();
+    List<Submodule> submodules;
+    try (UpdateStats.Timer t = stats.time(Phase.RESOLVE)) {
+      submodules = resolveSubmodules(targetURI, projects, reader);
+    }
+    String digest = digest(submodules);
+
+    try (RevWalk rw = new RevWalk(repo);
+        ObjectInserter inserter = repo.newObjectInserter()) {
       ObjectId headId = repo.resolve(targetRef + "^{commit}");
-      CommitBuilder commit = new CommitBuilder();
-      commit.setTreeId(treeId);
-      if (headId != null) commit.setParentIds(headId);
-      PersonIdent author =
-          new PersonIdent(
-              serverIdent.getName(),
-              serverIdent.getEmailAddress(),
-              new Date(),
-              serverIdent.getTimeZone());
-      commit.setAuthor(author);
-      commit.setCommitter(author);
-      commit.setMessage(RepoText.get().repoCommitMessage);
-
-      ObjectId commitId = inserter.insert(commit);
-      inserter.flush();
+      if (headId != null && digest.equals(SuperprojectDigest.fromFooter(rw.parseCommit(headId)))) {
+        logger.atFine().log("%s: %s is up to date, skipping update", canonicalWebUrl, targetRef);
+        stats.setUnchanged();
+        return;
+      }
+
+      ObjectId commitId;
+      try (UpdateStats.Timer t = stats.time(Phase.TREE_BUILD)) {
+        commitId = insertCommit(rw, inserter, submodules, headId, digest, stats);
+      }
+      try (UpdateStats.Timer t = stats.time(Phase.OBJECT_INSERT)) {
+        inserter.flush();
+      }
 
       RefUpdate ru = repo.updateRef(targetRef);
       ru.setNewObjectId(commitId);
       ru.setExpectedOldObjectId(headId != null ? headId : ObjectId.zeroId());
-      Result rc = ru.update(rw);
+      Result rc;
+      try (UpdateStats.Timer t = stats.time(Phase.REF_UPDATE)) {
+        rc = ru.update(rw);
+      }
 
       switch (rc) {
         case NEW:
@@ -199,6 +286,57 @@ class JiriUpdater implements SubModuleUpdater {
     }
   }
 
+  // Project the download schemes are asked the URL of, to learn their host once per update.
+  static final String PROBE_PROJECT = "supermanifest/probe";
+
+  /**
+   * Tells which project URLs point to this server: those with the host of the first URL that an
+   * enabled download scheme gives for the project, if it is an http(s) URL.
+   *
+   * <p>Download schemes build their URLs from the project name, so they are asked once for a probe
+   * project instead of once per project. If a scheme gives no URL for the probe, its URLs may
+   * depend on the project, so then the schemes are asked for every project.
+   */
+  private class LocalHosts {
+    // Host of the http(s) URLs, null if the schemes give none.
+    private final String host;
+    private final boolean perProject;
+
+    LocalHosts() {
+      List<String> hosts = new ArrayList<>();
+      boolean[] perProject = {false};
+      downloadScheme.runEach(
+          extension -> {
+            if (perProject[0] || !hosts.isEmpty()) {
+              return;
+            }
+            DownloadScheme scheme = extension.get();
+            if (!scheme.isEnabled()) {
+              return;
+            }
+            String url = scheme.getUrl(PROBE_PROJECT);
+            if (url == null) {
+              perProject[0] = true;
+              return;
+            }
+            URI uri = URI.create(url);
+            if (uri.getScheme().equals("https") || uri.getScheme().equals("http")) {
+              hosts.add(uri.getHost());
+            }
+          });
+      this.host = hosts.isEmpty() ? null : hosts.get(0);
+      this.perProject = perProject[0];
+    }
+
+    boolean isLocal(String projectName, URI url) {
+      if (perProject) {
+        URI localURI = getLocalURI(projectName);
+        return localURI != null && localURI.getHost().equals(url.getHost());
+      }
+      return host != null && host.equals(url.getHost());
+    }
+  }
+
   private URI getLocalURI(String projectName) {
     List<URI> uriList = Lists.newArrayList();
     downloadScheme.runEach(
@@ -291,9 +429,18 @@ class JiriUpdater implements SubModuleUpdater {
   public void update(GerritRemoteReader reader, ConfigEntry c, String srcRef)
       throws IOException, GitAPIException, ConfigInvalidException {
     try (Repository destRepo = reader.openRepository(c.getDestRepoKey().toString())) {
+      String srcRepo = c.getSrcRepoKey().toString();
+      // The parsed projects are shared with other destinations fed by the same manifest.
       JiriProjects projects =
-          JiriManifestParser.getProjects(
-              reader, c.getSrcRepoKey().toString(), srcRef, c.getXmlPath());
+          reader
+              .getCache()
+              .jiriProjects(
+                  srcRepo,
+                  srcRef,
+                  c.getXmlPath(),
+                  reader.getStats(),
+                  () -> JiriManifestParser.getProjects(reader, srcRepo, srcRef, c.getXmlPath()));
+      reader.getStats().count(Counter.PROJECTS, projects.getProjects().length);
       String targetRef = REFS_HEADS + c.getActualDestBranch(srcRef);
       updateSubmodules(
           destRepo, targetRef, URI.create(c.getDestRepoKey().toString() + "/"), projects, reader);
@@ -0,0 +1,51 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.permissions.GlobalPermission;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+
+/**
+ * Lists the recent runs of every destination, keyed by {@code project:branch}.
+ *
+ * <p>Served at {@code GET /config/server/supermanifest~runs}, for administrators.
+ */
+@Singleton
+class ListRecentRuns implements RestReadView<ConfigResource> {
+  private final RecentRuns runs;
+  private final PermissionBackend permissionBackend;
+
+  @Inject
+  ListRecentRuns(RecentRuns runs, PermissionBackend permissionBackend) {
+    this.runs = runs;
+    this.permissionBackend = permissionBackend;
+  }
+
+  @Override
+  public Response<Map<String, ImmutableList<RecentRuns.Run>>> apply(ConfigResource resource)
+      throws AuthException, PermissionBackendException {
+    permissionBackend.currentUser().check(GlobalPermission.ADMINISTRATE_SERVER);
+    return Response.ok(runs.get());
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.gerrit.server.config.PluginConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Bounds on the bytes an update reads into memory: per file (manifests, includes, imports and
+ * copied files), and over the whole update. They protect the heap of the server from huge or
+ * malicious manifests.
+ *
+ * <p>They are set with {@code plugin.supermanifest.maxFileSize} and {@code
+ * plugin.supermanifest.maxUpdateReadSize} in {@code gerrit.config}.
+ */
+class ReadLimits {
+  static final long DEFAULT_MAX_FILE_SIZE = 32L << 20;
+  static final long DEFAULT_MAX_UPDATE_READ_SIZE = 512L << 20;
+
+  static final ReadLimits UNLIMITED = new ReadLimits(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+  /** Thrown when a read would exceed the limits. */
+  static class ExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    ExceededException(String message) {
+      super(message);
+    }
+  }
+
+  static ReadLimits fromConfig(PluginConfig cfg) {
+    return new ReadLimits(
+        cfg.getLong("maxFileSize", DEFAULT_MAX_FILE_SIZE),
+        cfg.getLong("maxUpdateReadSize", DEFAULT_MAX_UPDATE_READ_SIZE));
+  }
+
+  private final long maxFileSize;
+  private final long maxUpdateReadSize;
+
+  ReadLimits(long maxFileSize, long maxUpdateReadSize) {
+    // Blobs are read into arrays.
+    this.maxFileSize = Math.min(maxFileSize > 0 ? maxFileSize : Long.MAX_VALUE, Integer.MAX_VALUE);
+    this.maxUpdateReadSize = maxUpdateReadSize > 0 ? maxUpdateReadSize : Long.MAX_VALUE;
+  }
+
+  /**
+   * Reads the object of {@code loader} and counts its bytes in {@code stats}. Its size is checked
+   * before anything is allocated, and large objects are streamed into an array of their size.
+   *
+   * <p>The content is returned as an array rather than a stream because every caller needs it
+   * whole: {@link SourceCache} keeps it for the other destinations of the source, the repo digest
+   * pass and RepoCommand both parse it, includes are hashed, RepoCommand takes copied files as
+   * arrays, and reading is timed apart from parsing. {@code maxFileSize} bounds each array.
+   *
+   * @param what the object, for the error message
+   * @throws ExceededException if the object, or the bytes read by the update with it, is over the
+   *     limits
+   */
+  byte[] read(ObjectLoader loader, String what, UpdateStats stats) throws IOException {
+    long size = loader.getSize();
+    if (size > maxFileSize) {
+      throw new ExceededException(
+          String.format("%s is %d bytes, over the limit of %d", what, size, maxFileSize));
+    }
+    long total = stats.getCount(UpdateStats.Counter.BYTES_READ) + size;
+    if (total > maxUpdateReadSize) {
+      throw new ExceededException(
+          String.format(
+              "reading %s makes the update read %d bytes, over the limit of %d",
+              what, total, maxUpdateReadSize));
+    }
+
+    byte[] content;
+    if (loader.isLarge()) {
+      content = new byte[(int) size];
+      try (InputStream in = loader.openStream()) {
+        IO.readFully(in, content, 0, content.length);
+      }
+    } else {
+      content = loader.getCachedBytes();
+    }
+    stats.count(UpdateStats.Counter.BYTES_READ, content.length);
+    return content;
+  }
+}
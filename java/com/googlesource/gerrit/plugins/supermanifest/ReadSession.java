@@ -0,0 +1,138 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.jgit.errors.RevisionSyntaxException;
+import org.eclipse.jgit.gitrepo.RepoCommand.RemoteFile;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+/**
+ * Reads files from the repositories used by one update: manifests, included or imported manifests
+ * and copied files.
+ *
+ * <p>It keeps one {@link RevWalk}, and so one object reader, per repository, and remembers the
+ * tree of every revision it read from. Manifests with many includes, imports or copied files then
+ * do not resolve and parse the same commit again. Everything is released by {@link #close}, which
+ * must be called before the repositories are closed.
+ *
+ * <p>This class is thread-safe.
+ */
+class ReadSession implements AutoCloseable {
+  private final Map<Repository, RevWalk> walks = new IdentityHashMap<>();
+  // Repository to revision to tree.
+  private final Map<Repository, Map<String, RevTree>> trees = new IdentityHashMap<>();
+  private final ReadLimits limits;
+  private final UpdateStats stats;
+
+  ReadSession(ReadLimits limits, UpdateStats stats) {
+    this.limits = limits;
+    this.stats = stats;
+  }
+
+  /**
+   * @param rev a ref name or a SHA-1
+   * @return the content and mode of {@code path} at {@code rev} in {@code repo}, read within the
+   *     limits of the update
+   */
+  synchronized RemoteFile read(Repository repo, String rev, String path) throws IOException {
+    RevWalk rw = walks.computeIfAbsent(repo, RevWalk::new);
+    RevTree tree = tree(repo, rw, rev);
+    try (TreeWalk tw = TreeWalk.forPath(rw.getObjectReader(), path, tree)) {
+      if (tw == null || tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+        throw new RevisionSyntaxException(
+            String.format("repo %s does not have %s:%s", repo, rev, path), rev + ":" + path);
+      }
+      byte[] content =
+          limits.read(
+              rw.getObjectReader().open(tw.getObjectId(0), Constants.OBJ_BLOB),
+              rev + ":" + path,
+              stats);
+      return new RemoteFile(content, tw.getFileMode(0));
+    }
+  }
+
+  /**
+   * Like {@link #read}, for several paths at the same revision, which are all found in one walk of
+   * its tree.
+   *
+   * @return the files found, by path
+   */
+  synchronized Map<String, RemoteFile> readAll(Repository repo, String rev, Set<String> paths)
+      throws IOException {
+    Map<String, RemoteFile> files = new HashMap<>();
+    if (paths.isEmpty()) {
+      return files;
+    }
+
+    RevWalk rw = walks.computeIfAbsent(repo, RevWalk::new);
+    RevTree tree = tree(repo, rw, rev);
+    try (TreeWalk tw = new TreeWalk(rw.getObjectReader())) {
+      tw.addTree(tree);
+      tw.setRecursive(true);
+      tw.setFilter(PathFilterGroup.createFromStrings(paths));
+      while (tw.next()) {
+        String path = tw.getPathString();
+        // The filter also lets the files below a path through.
+        if (!paths.contains(path) || tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+          continue;
+        }
+        byte[] content =
+            limits.read(
+                rw.getObjectReader().open(tw.getObjectId(0), Constants.OBJ_BLOB),
+                rev + ":" + path,
+                stats);
+        files.put(path, new RemoteFile(content, tw.getFileMode(0)));
+      }
+    }
+    return files;
+  }
+
+  private RevTree tree(Repository repo, RevWalk rw, String rev) throws IOException {
+    Map<String, RevTree> byRev = trees.computeIfAbsent(repo, r -> new HashMap<>());
+    RevTree tree = byRev.get(rev);
+    if (tree == null) {
+      Ref r = repo.findRef(rev);
+      ObjectId id = r == null ? repo.resolve(rev) : r.getObjectId();
+      if (id == null) {
+        throw new RevisionSyntaxException(
+            String.format("repo %s does not have ref %s", repo, rev), rev);
+      }
+      tree = rw.parseCommit(id).getTree();
+      byRev.put(rev, tree);
+    }
+    return tree;
+  }
+
+  @Override
+  public synchronized void close() {
+    for (RevWalk rw : walks.values()) {
+      rw.close();
+    }
+    walks.clear();
+    trees.clear();
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The last runs of every destination, kept in memory so failures and slow updates can be looked
+ * at without going through the logs.
+ *
+ * <p>The number of runs kept per destination is set with {@code plugin.supermanifest.historySize}
+ * in {@code gerrit.config}.
+ *
+ * <p>This class is thread-safe.
+ */
+@Singleton
+class RecentRuns {
+  static final int DEFAULT_HISTORY_SIZE = 10;
+
+  /** What caused a run. */
+  enum Trigger {
+    /** A ref update of the manifest repository. */
+    REF_UPDATE,
+    /** A call to the {@code update_manifest} REST view. */
+    MANUAL,
+    /** A call to the {@code reconcile} REST view. */
+    RECONCILE
+  }
+
+  /** REST representation of a run. */
+  static class Run {
+    public Trigger trigger;
+    public String srcProject;
+    public String srcRef;
+    public String srcRevision;
+    public String result;
+    public boolean unchanged;
+    public long started;
+    public long durationMillis;
+    public Map<UpdateStats.Phase, Long> phaseMillis;
+    public String error;
+  }
+
+  private final int historySize;
+  private final ConcurrentMap<String, Deque<Run>> runs = new ConcurrentHashMap<>();
+
+  @Inject
+  RecentRuns(PluginConfigFactory cfgFactory, @PluginName String pluginName) {
+    this.historySize =
+        Math.max(
+            0,
+            cfgFactory
+                .getFromGerritConfig(pluginName)
+                .getInt("historySize", DEFAULT_HISTORY_SIZE));
+  }
+
+  /** @return an observer recording the runs it sees as caused by {@code trigger} */
+  UpdateObserver observer(Trigger trigger) {
+    return new UpdateObserver() {
+      @Override
+      public void finished(
+          ConfigEntry configEntry, String refName, UpdateStats stats, Exception error) {
+        Run run = new Run();
+        run.trigger = trigger;
+        run.srcProject = configEntry.getSrcRepoKey().get();
+        run.srcRef = refName;
+        run.srcRevision = stats.getSourceRevision();
+        run.result = stats.getResult();
+        run.unchanged = stats.isUnchanged();
+        run.started = stats.getStartMillis();
+        run.durationMillis = stats.getDurationMillis();
+        run.phaseMillis = stats.getPhaseMillis();
+        if (error != null) {
+          run.error = SuperManifestRefUpdatedListener.trimmedStackTrace(error);
+        }
+        add(configEntry.getActualDest(refName), run);
+      }
+    };
+  }
+
+  private void add(String destination, Run run) {
+    if (historySize == 0) {
+      return;
+    }
+    Deque<Run> q = runs.computeIfAbsent(destination, k -> new ArrayDeque<>(historySize));
+    synchronized (q) {
+      if (q.size() == historySize) {
+        q.removeLast();
+      }
+      q.addFirst(run);
+    }
+  }
+
+  /** @return the runs of every destination, most recent first */
+  ImmutableSortedMap<String, ImmutableList<Run>> get() {
+    ImmutableSortedMap.Builder<String, ImmutableList<Run>> b = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Deque<Run>> e : runs.entrySet()) {
+      synchronized (e.getValue()) {
+        b.put(e.getKey(), ImmutableList.copyOf(e.getValue()));
+      }
+    }
+    return b.build();
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.PreconditionFailedException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.permissions.GlobalPermission;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+
+/**
+ * Regenerates all configured superprojects, in the background.
+ *
+ * <p>Served at {@code POST /config/server/supermanifest~reconcile}. Returns {@code 202 Accepted}
+ * with the job following the updates.
+ */
+@Singleton
+class Reconcile implements RestModifyView<ConfigResource, Reconcile.Input> {
+  static class Input {
+    /** How many destinations to update at the same time; defaults to the configured value. */
+    public Integer parallelism;
+  }
+
+  private final SuperManifestRefUpdatedListener listener;
+  private final SuperManifestExecutor executor;
+  private final PermissionBackend permissionBackend;
+
+  @Inject
+  Reconcile(
+      SuperManifestRefUpdatedListener listener,
+      SuperManifestExecutor executor,
+      PermissionBackend permissionBackend) {
+    this.listener = listener;
+    this.executor = executor;
+    this.permissionBackend = permissionBackend;
+  }
+
+  @Override
+  public Response<UpdateJob.Info> apply(ConfigResource resource, Input input)
+      throws AuthException, BadRequestException, PermissionBackendException,
+          PreconditionFailedException, IOException {
+    permissionBackend.currentUser().check(GlobalPermission.ADMINISTRATE_SERVER);
+    int parallelism = executor.getReconcileParallelism();
+    if (input != null && input.parallelism != null) {
+      if (input.parallelism < 1) {
+        throw new BadRequestException("parallelism must be at least 1");
+      }
+      parallelism = input.parallelism;
+    }
+
+    try {
+      return Response.withStatusCode(202, listener.reconcile(parallelism).toInfo());
+    } catch (NoSuchProjectException e) {
+      throw new PreconditionFailedException(
+          "Plugin could not read the supermanifest configuration");
+    }
+  }
+}
@@ -0,0 +1,289 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.gerrit.entities.RefNames.REFS_TAGS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.GerritRemoteReader;
+import com.googlesource.gerrit.plugins.supermanifest.UpdateStats.Phase;
+import java.io.IOException;
+import java.net.URI;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheTree;
+import org.eclipse.jgit.errors.RevisionSyntaxException;
+import org.eclipse.jgit.gitrepo.RepoCommand.RemoteFile;
+import org.eclipse.jgit.gitrepo.internal.RepoText;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Writes a repo superproject the way RepoCommand does for bare repositories, from submodules that
+ * were already parsed and resolved by {@link RepoUpdater}.
+ *
+ * <p>The tree, {@code .gitmodules} and {@code .gitattributes} are the same as RepoCommand's, so
+ * entries can switch between the two without rewriting their superprojects. Unlike RepoCommand,
+ * project refs are not looked up again, and copied files are read at the resolved SHA-1.
+ */
+class RepoSuperprojectWriter {
+  /** A project of the manifest, as RepoCommand would write it. */
+  static class Submodule {
+    // Name of the project, suffixed with the path if several projects have the same name.
+    final String name;
+    final String path;
+    final String url;
+    final String revision;
+    final String upstream;
+    // null if the project could not be resolved and ignoreRemoteFailures is set.
+    final ObjectId id;
+    final Set<String> groups;
+    final boolean shallow;
+    // {src, dest}
+    final List<String[]> copyFiles = new ArrayList<>();
+    final List<String[]> linkFiles = new ArrayList<>();
+
+    Submodule(
+        String name,
+        String path,
+        String url,
+        String revision,
+        String upstream,
+        ObjectId id,
+        Set<String> groups,
+        boolean shallow) {
+      this.name = name;
+      this.path = path;
+      this.url = url;
+      this.revision = revision;
+      this.upstream = upstream;
+      this.id = id;
+      this.groups = groups;
+      this.shallow = shallow;
+    }
+  }
+
+  private final Repository repo;
+  private final String targetRef;
+  private final URI targetUri;
+  private final PersonIdent author;
+  private final GerritRemoteReader reader;
+  private final ConfigEntry c;
+
+  RepoSuperprojectWriter(
+      Repository repo,
+      String targetRef,
+      ConfigEntry c,
+      PersonIdent author,
+      GerritRemoteReader reader) {
+    this.repo = repo;
+    this.targetRef = targetRef;
+    this.targetUri = URI.create(c.getDestRepoKey().toString());
+    this.author = author;
+    this.reader = reader;
+    this.c = c;
+  }
+
+  /**
+   * Writes the superproject for {@code submodules} to the target branch, unless its tree is
+   * already there.
+   *
+   * @param extraFiles more files to add, by path
+   */
+  void write(List<Submodule> submodules, Map<String, String> extraFiles)
+      throws IOException, GitAPIException {
+    UpdateStats stats = reader.getStats();
+    try (RevWalk rw = new RevWalk(repo);
+        ObjectInserter inserter = repo.newObjectInserter()) {
+      ObjectId headId = repo.resolve(targetRef + "^{commit}");
+      ObjectId commitId;
+      try (UpdateStats.Timer t = stats.time(Phase.TREE_BUILD)) {
+        ObjectId treeId = writeTree(inserter, submodules, extraFiles);
+        if (headId != null && rw.parseCommit(headId).getTree().getId().equals(treeId)) {
+          stats.setUnchanged();
+          return;
+        }
+
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(treeId);
+        if (headId != null) {
+          commit.setParentIds(headId);
+        }
+        commit.setAuthor(author);
+        commit.setCommitter(author);
+        commit.setMessage(RepoText.get().repoCommitMessage);
+        commitId = inserter.insert(commit);
+      }
+      try (UpdateStats.Timer t = stats.time(Phase.OBJECT_INSERT)) {
+        inserter.flush();
+      }
+
+      RefUpdate ru = repo.updateRef(targetRef);
+      ru.setNewObjectId(commitId);
+      ru.setExpectedOldObjectId(headId != null ? headId : ObjectId.zeroId());
+      RefUpdate.Result rc;
+      try (UpdateStats.Timer t = stats.time(Phase.REF_UPDATE)) {
+        rc = ru.update(rw);
+      }
+      switch (rc) {
+        case NEW:
+        case FORCED:
+        case FAST_FORWARD:
+          break;
+        case REJECTED:
+        case LOCK_FAILURE:
+          throw new ConcurrentRefUpdateException(
+              MessageFormat.format(JGitText.get().cannotLock, targetRef), ru.getRef(), rc);
+        default:
+          throw new JGitInternalException(
+              MessageFormat.format(
+                  JGitText.get().updatingRefFailed, targetRef, commitId.name(), rc));
+      }
+    }
+  }
+
+  private ObjectId writeTree(
+      ObjectInserter inserter, List<Submodule> submodules, Map<String, String> extraFiles)
+      throws IOException, GitAPIException {
+    SuperManifestEvents.TreeBuildEvent event = new SuperManifestEvents.TreeBuildEvent();
+    event.begin();
+    DirCache index = DirCache.newInCore();
+    DirCacheBuilder builder = index.builder();
+    int gitlinks = 0;
+    Config cfg = new Config();
+    StringBuilder attributes = new StringBuilder();
+    for (Submodule s : submodules) {
+      if (ObjectId.isId(s.revision)) {
+        if (c.recordRemoteBranch && s.upstream != null) {
+          cfg.setString("submodule", s.name, "ref", s.upstream);
+        }
+      } else {
+        if (c.recordRemoteBranch) {
+          // "branch" field is only for non-tag references.
+          // Keep tags in "ref" field as hint for other tools.
+          String field = s.revision.startsWith(REFS_TAGS) ? "ref" : "branch";
+          cfg.setString("submodule", s.name, field, s.revision);
+        }
+        if (s.shallow) {
+          cfg.setBoolean("submodule", s.name, "shallow", true);
+        }
+      }
+      if (c.isRecordSubmoduleLabels()) {
+        attributes.append("/").append(s.path);
+        for (String group : s.groups) {
+          attributes.append(" ").append(group);
+        }
+        attributes.append("\n");
+      }
+
+      URI url = JiriUpdater.relativize(targetUri, URI.create(s.url));
+      cfg.setString("submodule", s.name, "path", s.path);
+      cfg.setString("submodule", s.name, "url", url.toString());
+
+      if (s.id == null) {
+        continue;
+      }
+      add(builder, s.path, s.id, FileMode.GITLINK);
+      gitlinks++;
+      Set<String> srcs = new HashSet<>();
+      for (String[] f : s.copyFiles) {
+        srcs.add(f[0]);
+      }
+      Map<String, RemoteFile> files = reader.readFilesWithMode(s.url, s.id.name(), srcs);
+      for (String[] f : s.copyFiles) {
+        RemoteFile rf = files.get(f[0]);
+        if (rf == null) {
+          throw new RevisionSyntaxException(
+              String.format("repo %s does not have %s:%s", s.url, s.id.name(), f[0]), f[0]);
+        }
+        ObjectId fileId = inserter.insert(Constants.OBJ_BLOB, rf.getContents());
+        add(builder, f[1], fileId, rf.getFileMode());
+      }
+      for (String[] f : s.linkFiles) {
+        String link = s.path + "/" + f[0];
+        if (f[1].contains("/")) {
+          link = FileUtils.relativizeGitPath(f[1].substring(0, f[1].lastIndexOf('/')), link);
+        }
+        ObjectId linkId = inserter.insert(Constants.OBJ_BLOB, link.getBytes(UTF_8));
+        add(builder, f[1], linkId, FileMode.SYMLINK);
+      }
+    }
+
+    addFile(builder, inserter, Constants.DOT_GIT_MODULES, cfg.toText());
+    if (c.isRecordSubmoduleLabels()) {
+      addFile(builder, inserter, Constants.DOT_GIT_ATTRIBUTES, attributes.toString());
+    }
+    for (Map.Entry<String, String> e : extraFiles.entrySet()) {
+      addFile(builder, inserter, e.getKey(), e.getValue());
+    }
+    builder.finish();
+    ObjectId treeId = index.writeTree(inserter);
+    event.end();
+    if (event.shouldCommit()) {
+      event.destination = reader.getStats().getDestination();
+      event.submodules = gitlinks;
+      // A DirCache inserts all of its trees.
+      event.trees = countTrees(index.getCacheTree(false));
+      event.treesInserted = event.trees;
+      event.commit();
+    }
+    return treeId;
+  }
+
+  private static int countTrees(DirCacheTree tree) {
+    int n = 1;
+    for (int i = 0; i < tree.getChildCount(); i++) {
+      n += countTrees(tree.getChild(i));
+    }
+    return n;
+  }
+
+  private static void addFile(
+      DirCacheBuilder builder, ObjectInserter inserter, String path, String content)
+      throws IOException {
+    add(
+        builder,
+        path,
+        inserter.insert(Constants.OBJ_BLOB, content.getBytes(UTF_8)),
+        FileMode.REGULAR_FILE);
+  }
+
+  private static void add(DirCacheBuilder builder, String path, ObjectId id, FileMode mode) {
+    DirCacheEntry e = new DirCacheEntry(path);
+    e.setObjectId(id);
+    e.setFileMode(mode);
+    builder.add(e);
+  }
+}
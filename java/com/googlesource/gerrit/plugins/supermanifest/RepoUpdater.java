@@ -14,79 +14,507 @@
 
 package com.googlesource.gerrit.plugins.supermanifest;
 
+import static com.google.gerrit.entities.RefNames.REFS_HEADS;
+
+import com.google.common.base.Throwables;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.git.LockFailureException;
+import com.googlesource.gerrit.plugins.supermanifest.ConfigEntry.RepoEngine;
 import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.GerritRemoteReader;
+import com.googlesource.gerrit.plugins.supermanifest.UpdateStats.Counter;
+import com.googlesource.gerrit.plugins.supermanifest.UpdateStats.Phase;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.InvalidRemoteException;
+import org.eclipse.jgit.errors.RevisionSyntaxException;
 import org.eclipse.jgit.gitrepo.ManifestParser;
 import org.eclipse.jgit.gitrepo.RepoCommand;
+import org.eclipse.jgit.gitrepo.RepoProject;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 class RepoUpdater implements SubModuleUpdater {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   static final String SUPERMANIFEST_STAMP = ".supermanifest";
 
+  // RepoCommand writes its own commit message, so the digest goes into the tree.
+  static final String SUPERMANIFEST_DIGEST = ".supermanifest-digest";
+
   PersonIdent serverIdent;
+  private final ExecutorService resolver;
 
+  /** Creates an updater resolving project refs on the calling thread. */
   public RepoUpdater(PersonIdent serverIdent) {
+    this(serverIdent, MoreExecutors.newDirectExecutorService());
+  }
+
+  /** @param resolver pool on which the project refs of the manifest are resolved concurrently */
+  public RepoUpdater(PersonIdent serverIdent, ExecutorService resolver) {
     this.serverIdent = serverIdent;
+    this.resolver = resolver;
   }
 
   @Override
   public void update(GerritRemoteReader reader, ConfigEntry c, String srcRef)
       throws IOException, GitAPIException {
-    Repository destRepo = reader.openRepository(c.getDestRepoKey().toString());
     Repository srcRepo = reader.openRepository(c.getSrcRepoKey().toString());
-
-    RepoCommand cmd = new RepoCommand(destRepo);
-    cmd.setTargetBranch(c.getActualDestBranch(srcRef));
-
-    InputStream manifestStream =
-        new ByteArrayInputStream(Utils.readBlob(srcRepo, srcRef + ":" + c.getXmlPath()));
-
-    cmd.setAuthor(serverIdent)
-        .setGroups(c.getGroupsParameter())
-        .setRecordRemoteBranch(c.recordRemoteBranch)
-        .setRecordSubmoduleLabels(c.isRecordSubmoduleLabels())
-        .setIgnoreRemoteFailures(c.ignoreRemoteFailures)
-        .setInputStream(manifestStream)
-        .addToDestination(
-            SUPERMANIFEST_STAMP,
-            String.format("%s %s %s", c.getSrcRepoKey(), srcRef, srcRepo.resolve(srcRef).getName()))
-        .setRecommendShallow(true)
-        .setRemoteReader(reader)
-        .setTargetURI(c.getDestRepoKey().toString())
-        .setURI(c.getBaseUri().toString());
+    // The manifest and its includes are all read from this commit, even if the ref moves meanwhile.
+    ObjectId srcCommit = srcRepo.resolve(srcRef + "^{commit}");
+    if (srcCommit == null) {
+      throw new RevisionSyntaxException(
+          String.format("repo %s does not have %s", srcRepo, srcRef), srcRef);
+    }
 
     // Must setup a included file reader; the default is to read the file from the filesystem
     // otherwise, which would leak data from the serving machine.
-    cmd.setIncludedFileReader(new GerritIncludeReader(srcRepo, srcRef));
+    GerritIncludeReader includeReader =
+        new GerritIncludeReader(
+            reader.getCache(),
+            reader.getStats(),
+            reader.getSession(),
+            c.getSrcRepoKey().get(),
+            srcRepo,
+            srcCommit);
+
+    Repository destRepo = reader.openRepository(c.getDestRepoKey().toString());
+    String targetBranch = c.getActualDestBranch(srcRef);
+    UpdateStats stats = reader.getStats();
+    byte[] manifest;
+    try (UpdateStats.Timer t = stats.time(Phase.MANIFEST_READ)) {
+      manifest = includeReader.read(c.getXmlPath());
+    }
+
+    ResolvedManifest resolved;
+    try {
+      resolved = resolve(reader, includeReader, destRepo, c, manifest);
+    } catch (IOException | InvalidRemoteException e) {
+      if (c.getRepoEngine() == RepoEngine.Native || e instanceof ReadLimits.ExceededException) {
+        throw e;
+      }
+      // RepoCommand parses and resolves the manifest again, and reports the error.
+      resolved = null;
+    }
+    String digest = resolved != null ? resolved.digest : null;
+    if (digest != null) {
+      ObjectId headId = destRepo.resolve(REFS_HEADS + targetBranch + "^{commit}");
+      if (headId != null
+          && digest.equals(SuperprojectDigest.fromFile(destRepo, headId, SUPERMANIFEST_DIGEST))) {
+        logger.atFine().log(
+            "%s:%s is up to date, skipping update", c.getDestRepoKey(), targetBranch);
+        stats.setUnchanged();
+        return;
+      }
+    }
 
+    String stamp = String.format("%s %s %s", c.getSrcRepoKey(), srcRef, srcCommit.getName());
     try {
-      cmd.call();
+      if (c.getRepoEngine() == RepoEngine.Native) {
+        Map<String, String> extraFiles = new LinkedHashMap<>();
+        extraFiles.put(SUPERMANIFEST_STAMP, stamp);
+        extraFiles.put(SUPERMANIFEST_DIGEST, digest);
+        new RepoSuperprojectWriter(destRepo, REFS_HEADS + targetBranch, c, serverIdent, reader)
+            .write(resolved.submodules, extraFiles);
+        return;
+      }
+
+      RepoCommand cmd = new RepoCommand(destRepo);
+      cmd.setTargetBranch(targetBranch);
+
+      cmd.setAuthor(serverIdent)
+          .setGroups(c.getGroupsParameter())
+          .setRecordRemoteBranch(c.recordRemoteBranch)
+          .setRecordSubmoduleLabels(c.isRecordSubmoduleLabels())
+          .setIgnoreRemoteFailures(c.ignoreRemoteFailures)
+          .setInputStream(new ByteArrayInputStream(manifest))
+          .addToDestination(SUPERMANIFEST_STAMP, stamp)
+          .setRecommendShallow(true)
+          .setRemoteReader(reader)
+          .setTargetURI(c.getDestRepoKey().toString())
+          .setURI(c.getBaseUri().toString());
+      if (digest != null) {
+        cmd.addToDestination(SUPERMANIFEST_DIGEST, digest);
+      }
+
+      cmd.setIncludedFileReader(includeReader);
+
+      // RepoCommand writes the tree, the objects and the branch in one call, which can only be
+      // timed as a whole.
+      try (UpdateStats.Timer t = stats.time(Phase.TREE_BUILD)) {
+        cmd.call();
+      }
     } catch (ConcurrentRefUpdateException e) {
       LockFailureException.throwIfLockFailure(e);
       throw e;
     }
   }
 
+  /** The manifest as RepoCommand sees it, with its projects resolved. */
+  private static class ResolvedManifest {
+    // In the order RepoCommand writes them.
+    final List<RepoSuperprojectWriter.Submodule> submodules;
+    final String digest;
+
+    ResolvedManifest(List<RepoSuperprojectWriter.Submodule> submodules, String digest) {
+      this.submodules = submodules;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * Parses the manifest and resolves its projects, like RepoCommand does. This gives the digest of
+   * the superproject RepoCommand would write, and everything the native engine needs to write it.
+   *
+   * <p>The project refs are resolved concurrently on {@link #resolver}. They are remembered by the
+   * {@link SourceCache} of the reader, so RepoCommand, which asks for them one at a time, does not
+   * look them up again.
+   *
+   * @throws IOException if the manifest cannot be parsed
+   * @throws InvalidRemoteException if a project cannot be resolved, and remote failures are not
+   *     ignored
+   */
+  private ResolvedManifest resolve(
+      GerritRemoteReader reader,
+      GerritIncludeReader includeReader,
+      Repository destRepo,
+      ConfigEntry c,
+      byte[] manifest)
+      throws IOException, GitAPIException {
+    DigestManifestParser parser =
+        new DigestManifestParser(
+            includeReader, c.getBaseUri().toString(), c.getGroupsParameter(), destRepo);
+    // Included manifests are parsed by a plain ManifestParser, so their files are read separately.
+    ReferenceFiles includedFiles = new ReferenceFiles();
+    try (UpdateStats.Timer t = reader.getStats().time(Phase.PARSE)) {
+      parser.read(new ByteArrayInputStream(manifest));
+      for (byte[] included : includeReader.contents.values()) {
+        includedFiles.read(included);
+      }
+    }
+
+    SuperprojectDigest digest =
+        new SuperprojectDigest()
+            .addOption("recordRemoteBranch", c.recordRemoteBranch)
+            .addOption("recordSubmoduleLabels", c.isRecordSubmoduleLabels())
+            .addOption("targetUri", c.getDestRepoKey());
+    Map<String, ObjectId> ids = new HashMap<>();
+    try (UpdateStats.Timer t = reader.getStats().time(Phase.RESOLVE)) {
+      Map<String, ObjectId> refs = resolveRefs(reader, parser.getFilteredProjects());
+      for (RepoProject p : parser.getFilteredProjects()) {
+        String revision = p.getRevision();
+        ObjectId id =
+            ObjectId.isId(revision)
+                ? ObjectId.fromString(revision)
+                : refs.get(p.getUrl() + " " + revision);
+        if (id == null && !c.ignoreRemoteFailures) {
+          throw new InvalidRemoteException(
+              String.format("cannot resolve %s in %s", revision, p.getUrl()));
+        }
+        ids.put(p.getPath(), id);
+        digest.addSubmodule(
+            p.getName(),
+            p.getPath(),
+            p.getUrl(),
+            id,
+            revision,
+            p.getUpstream(),
+            p.getRecommendShallow() != null);
+        if (c.isRecordSubmoduleLabels()) {
+          digest.addOption("labels " + p.getPath(), new TreeSet<>(p.getGroups()));
+        }
+      }
+    }
+    // The files of the included manifests are covered by the digests of their content.
+    for (String[] f : parser.referenceFiles.files) {
+      digest.addFile(f[0], f[1], f[2], f[3]);
+    }
+    for (Map.Entry<String, HashCode> include : includeReader.included.entrySet()) {
+      digest.addOption("include " + include.getKey(), include.getValue());
+    }
+    UpdateStats stats = reader.getStats();
+    stats.count(Counter.MANIFEST_FILES, 1 + includeReader.included.size());
+    stats.count(Counter.PROJECTS, parser.getFilteredProjects().size());
+    stats.count(Counter.SUBMODULES, ids.values().stream().filter(Objects::nonNull).count());
+    List<String[]> referenceFiles = new ArrayList<>(parser.referenceFiles.files);
+    referenceFiles.addAll(includedFiles.files);
+    Map<String, List<String[]>> files =
+        referenceFiles(parser.getFilteredProjects(), referenceFiles);
+    return new ResolvedManifest(
+        submodules(parser.getFilteredProjects(), ids, files), digest.compute());
+  }
+
+  /**
+   * Keeps the copyfile and linkfile elements that ManifestParser kept in {@code projects}: those of
+   * projects that were not filtered out, minus those whose destination is in a project.
+   * RepoProject does not expose the source and destination of its files, so they are taken from
+   * the elements, and only their number from RepoProject.
+   *
+   * @param referenceFiles the elements of the manifest and its includes
+   * @return the elements by project path
+   * @throws IOException if they do not match the files of {@code projects}
+   */
+  private static Map<String, List<String[]>> referenceFiles(
+      List<RepoProject> projects, List<String[]> referenceFiles) throws IOException {
+    Map<String, List<String[]>> byPath = new HashMap<>();
+    for (RepoProject p : projects) {
+      byPath.put(p.getPath(), new ArrayList<>());
+    }
+    for (String[] f : referenceFiles) {
+      List<String[]> files = byPath.get(f[1]);
+      if (files != null && !isInProject(projects, f[3])) {
+        files.add(f);
+      }
+    }
+    for (RepoProject p : projects) {
+      List<String[]> files = byPath.get(p.getPath());
+      long copyFiles = files.stream().filter(f -> f[0].equals("copyfile")).count();
+      if (copyFiles != p.getCopyFiles().size()
+          || files.size() - copyFiles != p.getLinkFiles().size()) {
+        throw new IOException(
+            String.format("cannot match the copyfile and linkfile elements of %s", p.getPath()));
+      }
+    }
+    return byPath;
+  }
+
+  /** Like ManifestParser, which drops the files that would land in a project. */
+  private static boolean isInProject(List<RepoProject> projects, String dest) {
+    return dest.indexOf('/') >= 0 && projects.stream().anyMatch(p -> p.isAncestorOf(dest));
+  }
+
+  /**
+   * Resolves the refs of {@code projects} that are not SHA-1s, each (url, ref) pair once.
+   *
+   * @return the SHA-1s by url and ref, separated by a space; {@code null} for missing refs
+   */
+  private Map<String, ObjectId> resolveRefs(GerritRemoteReader reader, List<RepoProject> projects)
+      throws IOException, GitAPIException {
+    SuperManifestEvents.RefResolutionEvent event = new SuperManifestEvents.RefResolutionEvent();
+    event.begin();
+    Map<String, Future<ObjectId>> pending = new LinkedHashMap<>();
+    try {
+      for (RepoProject p : projects) {
+        String url = p.getUrl();
+        String revision = p.getRevision();
+        if (!ObjectId.isId(revision) && !pending.containsKey(url + " " + revision)) {
+          pending.put(url + " " + revision, resolver.submit(() -> reader.sha1(url, revision)));
+        }
+      }
+
+      Map<String, ObjectId> refs = new HashMap<>();
+      for (Map.Entry<String, Future<ObjectId>> e : pending.entrySet()) {
+        refs.put(e.getKey(), e.getValue().get());
+      }
+      event.end();
+      if (event.shouldCommit()) {
+        event.destination = reader.getStats().getDestination();
+        event.projects = projects.size();
+        event.refs = refs.size();
+        event.unresolved = refs.values().stream().filter(Objects::isNull).count();
+        event.commit();
+      }
+      return refs;
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), GitAPIException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while resolving project refs", e);
+    } finally {
+      // No-op if all of them completed.
+      for (Future<ObjectId> f : pending.values()) {
+        f.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * @return the submodules for {@code projects} in the order RepoCommand writes them: by name, and
+   *     by path for projects with the same name, whose names are then suffixed with their path
+   */
+  private static List<RepoSuperprojectWriter.Submodule> submodules(
+      List<RepoProject> projects, Map<String, ObjectId> ids, Map<String, List<String[]>> files) {
+    Map<String, List<RepoProject>> byName = new TreeMap<>();
+    for (RepoProject p : projects) {
+      byName.computeIfAbsent(p.getName(), n -> new ArrayList<>()).add(p);
+    }
+
+    List<RepoSuperprojectWriter.Submodule> submodules = new ArrayList<>(projects.size());
+    for (List<RepoProject> sameName : byName.values()) {
+      for (RepoProject p : sameName) {
+        String name = sameName.size() == 1 ? p.getName() : p.getName() + "/" + p.getPath();
+        RepoSuperprojectWriter.Submodule s =
+            new RepoSuperprojectWriter.Submodule(
+                name,
+                p.getPath(),
+                p.getUrl(),
+                p.getRevision(),
+                p.getUpstream(),
+                ids.get(p.getPath()),
+                p.getGroups(),
+                p.getRecommendShallow() != null);
+        for (String[] f : files.get(p.getPath())) {
+          (f[0].equals("copyfile") ? s.copyFiles : s.linkFiles).add(new String[] {f[2], f[3]});
+        }
+        submodules.add(s);
+      }
+    }
+    return submodules;
+  }
+
+  /**
+   * Collects the copyfile and linkfile elements of a manifest, which {@link RepoProject} does not
+   * expose.
+   */
+  private static class ReferenceFiles extends DefaultHandler {
+    // {element, project path, src, dest}
+    final List<String[]> files = new ArrayList<>();
+    private String currentProjectPath;
+
+    /** Collects the files of a manifest that is not parsed otherwise. */
+    void read(byte[] manifest) throws IOException {
+      try {
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setNamespaceAware(true);
+        spf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        XMLReader xr = spf.newSAXParser().getXMLReader();
+        xr.setContentHandler(this);
+        xr.parse(new InputSource(new ByteArrayInputStream(manifest)));
+      } catch (ParserConfigurationException | SAXException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      if ("project".equals(qName)) {
+        String path = attributes.getValue("path");
+        currentProjectPath = path != null ? path : attributes.getValue("name");
+      } else if (("copyfile".equals(qName) || "linkfile".equals(qName))
+          && currentProjectPath != null) {
+        files.add(
+            new String[] {
+              qName, currentProjectPath, attributes.getValue("src"), attributes.getValue("dest")
+            });
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      if ("project".equals(qName)) {
+        currentProjectPath = null;
+      }
+    }
+  }
+
+  /** ManifestParser that also remembers the copyfile and linkfile elements of the manifest. */
+  private static class DigestManifestParser extends ManifestParser {
+    final ReferenceFiles referenceFiles = new ReferenceFiles();
+
+    DigestManifestParser(
+        IncludedFileReader includedReader, String baseUrl, String groups, Repository rootRepo) {
+      super(includedReader, null, null, baseUrl, groups, rootRepo);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+        throws SAXException {
+      super.startElement(uri, localName, qName, attributes);
+      referenceFiles.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+      super.endElement(uri, localName, qName);
+      referenceFiles.endElement(uri, localName, qName);
+    }
+  }
+
+  /**
+   * Reads the manifest and its includes from one commit of the source repository. Files are read
+   * once per update, and once per source commit for all the destinations sharing the {@link
+   * SourceCache}.
+   */
   private static class GerritIncludeReader implements ManifestParser.IncludedFileReader {
+    // Includes are read by the digest pass and again by RepoCommand.
+    private final Map<String, byte[]> blobs = new HashMap<>();
+    private final SourceCache cache;
+    // Path to content hash, and to content, of every include read so far.
+    final Map<String, HashCode> included = new TreeMap<>();
+    final Map<String, byte[]> contents = new TreeMap<>();
+    private final UpdateStats stats;
+    private final ReadSession session;
+    private final String repoName;
     private final Repository repo;
-    private final String ref;
+    private final ObjectId commit;
 
-    GerritIncludeReader(Repository repo, String ref) {
+    GerritIncludeReader(
+        SourceCache cache,
+        UpdateStats stats,
+        ReadSession session,
+        String repoName,
+        Repository repo,
+        ObjectId commit) {
+      this.cache = cache;
+      this.stats = stats;
+      this.session = session;
+      this.repoName = repoName;
       this.repo = repo;
-      this.ref = ref;
+      this.commit = commit;
+    }
+
+    /** @return the content of {@code path} in the source commit */
+    byte[] read(String path) throws IOException {
+      byte[] content = blobs.get(path);
+      if (content == null) {
+        content =
+            cache.blob(
+                repoName,
+                commit.name(),
+                path,
+                stats,
+                () -> session.read(repo, commit.name(), path).getContents());
+        blobs.put(path, content);
+      }
+      return content;
     }
 
     @Override
     public InputStream readIncludeFile(String path) throws IOException {
-      String blobRef = ref + ":" + path;
-      return new ByteArrayInputStream(Utils.readBlob(repo, blobRef));
+      byte[] content;
+      try (UpdateStats.Timer t = stats.time(Phase.IMPORTS)) {
+        content = read(path);
+      }
+      included.put(path, Hashing.sha256().hashBytes(content));
+      contents.put(path, content);
+      return new ByteArrayInputStream(content);
     }
   }
 }
@@ -0,0 +1,129 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.common.base.Throwables;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Work shared by the updates of all destinations triggered by one source ref update.
+ *
+ * <p>Destinations fed by the same manifest would otherwise each read the manifest, parse it and
+ * resolve every project ref. Each value is computed once; concurrent callers asking for a value
+ * that is being computed wait for it instead of computing it again. Failures are not cached. Hits
+ * and misses are counted in the {@link UpdateStats} of the caller.
+ *
+ * <p>This class is thread-safe.
+ */
+class SourceCache {
+  interface Loader<T> {
+    T load() throws Exception;
+  }
+
+  private final ConcurrentMap<String, CompletableFuture<Optional<ObjectId>>> refs =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, CompletableFuture<byte[]>> blobs = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, CompletableFuture<JiriProjects>> jiriProjects =
+      new ConcurrentHashMap<>();
+
+  /** @return the resolved {@code ref} of the repository at {@code uri}, or {@code null} */
+  ObjectId sha1(String uri, String ref, UpdateStats stats, Loader<ObjectId> loader)
+      throws GitAPIException {
+    try {
+      return get(refs, uri + " " + ref, stats, () -> Optional.ofNullable(loader.load()))
+          .orElse(null);
+    } catch (Exception e) {
+      Throwables.throwIfInstanceOf(e, GitAPIException.class);
+      throw propagate(e);
+    }
+  }
+
+  /** @return the content of {@code path} at {@code rev} in {@code repo} */
+  byte[] blob(String repo, String rev, String path, UpdateStats stats, Loader<byte[]> loader)
+      throws IOException {
+    try {
+      return get(blobs, repo + " " + rev + ":" + path, stats, loader);
+    } catch (Exception e) {
+      Throwables.throwIfInstanceOf(e, IOException.class);
+      throw propagate(e);
+    }
+  }
+
+  /**
+   * @return the projects of the Jiri manifest {@code path} at {@code ref} in {@code repo}. The
+   *     returned instance is owned by the caller, but the projects in it are shared and must not
+   *     be modified.
+   */
+  JiriProjects jiriProjects(
+      String repo, String ref, String path, UpdateStats stats, Loader<JiriProjects> loader)
+      throws IOException, ConfigInvalidException {
+    JiriProjects projects;
+    try {
+      projects = get(jiriProjects, repo + " " + ref + ":" + path, stats, loader);
+    } catch (Exception e) {
+      Throwables.throwIfInstanceOf(e, IOException.class);
+      Throwables.throwIfInstanceOf(e, ConfigInvalidException.class);
+      throw propagate(e);
+    }
+    return new JiriProjects(projects.getProjects().clone());
+  }
+
+  private static <T> T get(
+      ConcurrentMap<String, CompletableFuture<T>> map,
+      String key,
+      UpdateStats stats,
+      Loader<T> loader)
+      throws Exception {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    CompletableFuture<T> existing = map.putIfAbsent(key, future);
+    stats.recordCacheLookup(existing != null);
+    if (existing == null) {
+      try {
+        T value = loader.load();
+        future.complete(value);
+        return value;
+      } catch (Exception e) {
+        map.remove(key, future);
+        future.completeExceptionally(e);
+        throw e;
+      }
+    }
+
+    try {
+      return existing.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.throwIfInstanceOf(cause, Exception.class);
+      Throwables.throwIfUnchecked(cause);
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for " + key, e);
+    }
+  }
+
+  private static RuntimeException propagate(Exception e) {
+    Throwables.throwIfUnchecked(e);
+    return new IllegalStateException(e);
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The paths of the submodules of a superproject, as a trie of their components. Git cannot have a
+ * submodule inside another one, so a path nested in an added path, or containing one, is not
+ * accepted, whatever the order in which the paths come. Paths with empty components, such as
+ * {@code a//b}, {@code /a} or {@code a/}, are invalid.
+ */
+class SubmodulePaths {
+  private static class Node {
+    // null until the first child is added.
+    Map<String, Node> children;
+    boolean submodule;
+
+    Node child(String name) {
+      return children != null ? children.get(name) : null;
+    }
+  }
+
+  private final Node root = new Node();
+
+  /**
+   * @return whether {@code path} can be added: it is neither nested in, equal to nor containing an
+   *     added path
+   * @throws IllegalArgumentException if {@code path} is empty or has an empty component
+   */
+  boolean accepts(String path) {
+    checkPath(path);
+    Node n = root;
+    int start = 0;
+    while (start < path.length()) {
+      int end = end(path, start);
+      if (n.submodule) {
+        return false;
+      }
+      n = n.child(path.substring(start, end));
+      if (n == null) {
+        return true;
+      }
+      start = end + 1;
+    }
+    return !n.submodule && n.children == null;
+  }
+
+  /**
+   * Adds {@code path}, which must be {@link #accepts accepted}.
+   *
+   * @throws IllegalArgumentException if {@code path} is invalid or not accepted
+   */
+  void add(String path) {
+    checkArgument(accepts(path), "%s is nested in, or contains, another submodule", path);
+    Node n = root;
+    int start = 0;
+    while (start < path.length()) {
+      int end = end(path, start);
+      String name = path.substring(start, end);
+      Node child = n.child(name);
+      if (child == null) {
+        if (n.children == null) {
+          n.children = new HashMap<>();
+        }
+        child = new Node();
+        n.children.put(name, child);
+      }
+      n = child;
+      start = end + 1;
+    }
+    n.submodule = true;
+  }
+
+  private static void checkPath(String path) {
+    checkArgument(
+        !path.isEmpty() && !path.startsWith("/") && !path.endsWith("/") && !path.contains("//"),
+        "invalid path %s",
+        path);
+  }
+
+  private static int end(String path, int start) {
+    int end = path.indexOf('/', start);
+    return end >= 0 ? end : path.length();
+  }
+}
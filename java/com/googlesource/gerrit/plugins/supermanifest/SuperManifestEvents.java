@@ -0,0 +1,107 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the plugin, so that slow updates can be lined up with GC and I/O
+ * in the same recording. Events cost next to nothing unless they are enabled in the recording.
+ */
+class SuperManifestEvents {
+  private static final String CATEGORY = "Supermanifest";
+
+  /** One phase of a superproject update, see {@link UpdateStats.Phase}. */
+  @Name("com.googlesource.gerrit.plugins.supermanifest.Phase")
+  @Label("Supermanifest Update Phase")
+  @Category({"Gerrit", CATEGORY})
+  static class PhaseEvent extends Event {
+    @Label("Destination")
+    @Description("Superproject and branch being updated, as project:branch")
+    String destination;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Bytes Read")
+    @Description("Bytes of manifest files read during the phase")
+    @DataAmount(DataAmount.BYTES)
+    long bytesRead;
+
+    @Label("SHA-1 Lookups")
+    @Description("Project refs resolved during the phase")
+    long sha1Calls;
+  }
+
+  /** Project refs resolved together for a repo manifest, see {@link UpdateStats.Phase}. */
+  @Name("com.googlesource.gerrit.plugins.supermanifest.RefResolution")
+  @Label("Supermanifest Ref Resolution")
+  @Category({"Gerrit", CATEGORY})
+  static class RefResolutionEvent extends Event {
+    @Label("Destination")
+    @Description("Superproject and branch being updated, as project:branch")
+    String destination;
+
+    @Label("Projects")
+    @Description("Projects of the manifest, including those pinned to a SHA-1")
+    long projects;
+
+    @Label("Refs")
+    @Description("Distinct project refs looked up")
+    long refs;
+
+    @Label("Unresolved")
+    @Description("Refs that were not found")
+    long unresolved;
+  }
+
+  /** The building of a superproject tree by the plugin, rather than by RepoCommand. */
+  @Name("com.googlesource.gerrit.plugins.supermanifest.TreeBuild")
+  @Label("Supermanifest Tree Build")
+  @Category({"Gerrit", CATEGORY})
+  static class TreeBuildEvent extends Event {
+    @Label("Destination")
+    @Description("Superproject and branch being updated, as project:branch")
+    String destination;
+
+    @Label("Submodules")
+    @Description("Gitlinks in the superproject tree")
+    long submodules;
+
+    @Label("Trees")
+    @Description("Trees in the superproject, including the root")
+    long trees;
+
+    @Label("Trees Inserted")
+    @Description("Trees that were not in the previous superproject commit")
+    long treesInserted;
+  }
+
+  /** The opening of a repository by the plugin. */
+  @Name("com.googlesource.gerrit.plugins.supermanifest.RepositoryOpen")
+  @Label("Supermanifest Repository Open")
+  @Category({"Gerrit", CATEGORY})
+  static class RepositoryOpenEvent extends Event {
+    @Label("Project")
+    String project;
+  }
+
+  private SuperManifestEvents() {}
+}
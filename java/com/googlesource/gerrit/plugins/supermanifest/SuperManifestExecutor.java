@@ -0,0 +1,99 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Thread pools running the superproject updates of the plugin.
+ *
+ * <p>The updates of the destinations run on a pool sized with {@code
+ * plugin.supermanifest.updateThreads} in {@code gerrit.config}. Asynchronous {@code
+ * update_manifest} jobs wait for those updates on a separate pool, sized with {@code
+ * plugin.supermanifest.jobThreads}, so they can never starve the updates they wait for. For the
+ * same reason, the project refs of repo manifests are resolved on their own pool, sized with {@code
+ * plugin.supermanifest.resolveThreads}. Reconciles run one at a time on a single thread of their
+ * own, so that a long reconcile does not hold up queued jobs, and the reverse.
+ */
+@Singleton
+class SuperManifestExecutor implements LifecycleListener {
+  static final int DEFAULT_UPDATE_THREADS = 4;
+  static final int DEFAULT_JOB_THREADS = 1;
+  static final int DEFAULT_RESOLVE_THREADS = 8;
+  static final int DEFAULT_RECONCILE_PARALLELISM = 2;
+
+  private final ExecutorService executor;
+  private final ExecutorService jobs;
+  private final ExecutorService resolver;
+  private final ExecutorService reconciler;
+  private final int reconcileParallelism;
+
+  @Inject
+  SuperManifestExecutor(
+      WorkQueue workQueue, PluginConfigFactory cfgFactory, @PluginName String pluginName) {
+    PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName);
+    int threads = cfg.getInt("updateThreads", DEFAULT_UPDATE_THREADS);
+    this.executor = workQueue.createQueue(Math.max(1, threads), "SuperManifest");
+    int jobThreads = cfg.getInt("jobThreads", DEFAULT_JOB_THREADS);
+    this.jobs = workQueue.createQueue(Math.max(1, jobThreads), "SuperManifest-Jobs");
+    int resolveThreads = cfg.getInt("resolveThreads", DEFAULT_RESOLVE_THREADS);
+    this.resolver = workQueue.createQueue(Math.max(1, resolveThreads), "SuperManifest-Resolve");
+    this.reconciler = workQueue.createQueue(1, "SuperManifest-Reconcile");
+    this.reconcileParallelism =
+        Math.max(1, cfg.getInt("reconcileParallelism", DEFAULT_RECONCILE_PARALLELISM));
+  }
+
+  ExecutorService get() {
+    return executor;
+  }
+
+  /** @return the pool running asynchronous {@code update_manifest} jobs */
+  ExecutorService getJobs() {
+    return jobs;
+  }
+
+  /** @return the pool resolving the project refs of repo manifests */
+  ExecutorService getResolver() {
+    return resolver;
+  }
+
+  /** @return the thread running reconciles, one at a time */
+  ExecutorService getReconciler() {
+    return reconciler;
+  }
+
+  /** @return how many destinations a reconcile updates at the same time by default */
+  int getReconcileParallelism() {
+    return reconcileParallelism;
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    jobs.shutdownNow();
+    reconciler.shutdownNow();
+    executor.shutdownNow();
+    resolver.shutdownNow();
+  }
+}
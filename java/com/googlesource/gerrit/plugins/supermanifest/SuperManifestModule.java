@@ -14,11 +14,14 @@
 
 package com.googlesource.gerrit.plugins.supermanifest;
 
+import static com.google.gerrit.server.config.ConfigResource.CONFIG_KIND;
 import static com.google.gerrit.server.project.BranchResource.BRANCH_KIND;
 import static com.google.inject.Scopes.SINGLETON;
+import static com.googlesource.gerrit.plugins.supermanifest.UpdateJobResource.JOB_KIND;
 
 import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
 import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.restapi.RestApiModule;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
@@ -34,6 +37,7 @@ public class SuperManifestModule extends RestApiModule {
     DynamicSet.bind(binder(), LifecycleListener.class)
         .to(SuperManifestRefUpdatedListener.class)
         .in(SINGLETON);
+    DynamicSet.bind(binder(), LifecycleListener.class).to(SuperManifestExecutor.class);
     install(
         new FactoryModuleBuilder()
             .implement(
@@ -41,5 +45,12 @@ public class SuperManifestModule extends RestApiModule {
                 SuperManifestRefUpdatedListener.GerritSuperManifestRepoManager.class)
             .build(SuperManifestRefUpdatedListener.SuperManifestRepoManager.Factory.class));
     post(BRANCH_KIND, "update_manifest").to(SuperManifestRefUpdatedListener.class).in(SINGLETON);
+
+    post(CONFIG_KIND, "reconcile").to(Reconcile.class);
+    get(CONFIG_KIND, "runs").to(ListRecentRuns.class);
+
+    DynamicMap.mapOf(binder(), JOB_KIND);
+    child(CONFIG_KIND, "jobs").to(UpdateJobsCollection.class);
+    get(JOB_KIND).to(GetUpdateJob.class);
   }
 }
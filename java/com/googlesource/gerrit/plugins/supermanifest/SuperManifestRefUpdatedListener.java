@@ -17,13 +17,17 @@ package com.googlesource.gerrit.plugins.supermanifest;
 import static com.google.gerrit.server.update.context.RefUpdateContext.RefUpdateType.PLUGIN;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.errorprone.annotations.FormatMethod;
 import com.google.errorprone.annotations.FormatString;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
-import com.google.gerrit.extensions.api.projects.BranchInput;
+import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.config.DownloadScheme;
 import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
 import com.google.gerrit.extensions.events.LifecycleListener;
@@ -31,15 +35,21 @@ import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.PreconditionFailedException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.metrics.CallbackMetric1;
 import com.google.gerrit.metrics.Counter1;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.metrics.Timer2;
 import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.CanonicalWebUrl;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.logging.PluginMetadata;
 import com.google.gerrit.server.permissions.GlobalPermission;
@@ -60,11 +70,21 @@ import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
@@ -72,15 +92,12 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
-import org.eclipse.jgit.errors.RevisionSyntaxException;
 import org.eclipse.jgit.gitrepo.RepoCommand;
 import org.eclipse.jgit.gitrepo.RepoCommand.RemoteFile;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.treewalk.TreeWalk;
 
 /**
  * This plugin will listen for changes to XML files in manifest repositories. When it finds such
@@ -90,9 +107,13 @@ import org.eclipse.jgit.treewalk.TreeWalk;
 public class SuperManifestRefUpdatedListener
     implements GitReferenceUpdatedListener,
         LifecycleListener,
-        RestModifyView<BranchResource, BranchInput> {
+        RestModifyView<BranchResource, UpdateManifestInput> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  private static final StackTraceElement UPDATE_FRAME =
+      new StackTraceElement(
+          SuperManifestRefUpdatedListener.class.getName(), "updateForConfigInOrder", null, -1);
+
   private final SuperManifestRepoManager.Factory repoManagerFactory;
   private final URI canonicalWebUrl;
   private final AllProjectsName allProjectsName;
@@ -104,6 +125,19 @@ public class SuperManifestRefUpdatedListener
   private final PluginMapContext<DownloadScheme> downloadScheme;
   private final Counter1<String> manifestUpdateResultCounter;
   private final Timer1<ConfigEntry.ToolType> superprojectCommitTimer;
+  private final Timer2<ConfigEntry.ToolType, UpdateStats.Phase> phaseTimer;
+  private final Timer0 configLoadTimer;
+  private final Timer1<ConfigEntry.ToolType> syncLagTimer;
+  private final Map<UpdateStats.Counter, Histogram1<ConfigEntry.ToolType>> workHistograms =
+      new EnumMap<>(UpdateStats.Counter.class);
+  // Destination (see ConfigEntry#getActualDest) to the time of its last successful update, in ms.
+  private final ConcurrentMap<String, Long> lastSuccessfulSync = new ConcurrentHashMap<>();
+  private final SuperManifestExecutor executor;
+  private final UpdateJobs jobs;
+  private final RecentRuns recentRuns;
+  private final long slowUpdateThresholdMillis;
+  private final ReadLimits readLimits;
+  private final DestinationQueue destinations = new DestinationQueue();
 
   @Inject
   SuperManifestRefUpdatedListener(
@@ -116,6 +150,11 @@ public class SuperManifestRefUpdatedListener
       SuperManifestRepoManager.Factory repoManagerFactory,
       Provider<IdentifiedUser> identifiedUser,
       PermissionBackend permissionBackend,
+      SuperManifestExecutor executor,
+      UpdateJobs jobs,
+      RecentRuns recentRuns,
+      PluginConfigFactory cfgFactory,
+      @PluginName String pluginName,
       MetricMaker metrics) {
 
     this.configParser = configParser;
@@ -132,6 +171,15 @@ public class SuperManifestRefUpdatedListener
     this.projectCache = projectCache;
     this.identifiedUser = identifiedUser;
     this.permissionBackend = permissionBackend;
+    this.executor = executor;
+    this.jobs = jobs;
+    this.recentRuns = recentRuns;
+    this.slowUpdateThresholdMillis =
+        ConfigUtil.getTimeUnit(
+            cfgFactory.getFromGerritConfig(pluginName).getString("slowUpdateThreshold"),
+            0,
+            TimeUnit.MILLISECONDS);
+    this.readLimits = ReadLimits.fromConfig(cfgFactory.getFromGerritConfig(pluginName));
     this.manifestUpdateResultCounter =
         metrics.newCounter(
             "supermanifest/update_result",
@@ -158,6 +206,112 @@ public class SuperManifestRefUpdatedListener
                             .addPluginMetadata(PluginMetadata.create("tool", fieldValue)))
                 .description("Tool handling the manifest (repo or jiri)")
                 .build());
+    this.phaseTimer =
+        metrics.newTimer(
+            "supermanifest/phase_latency",
+            new Description("Time taken by each phase of a superproject update"),
+            Field.ofEnum(
+                    ConfigEntry.ToolType.class,
+                    "tool",
+                    (metadataBuilder, fieldValue) ->
+                        metadataBuilder
+                            .pluginName("supermanifest")
+                            .addPluginMetadata(PluginMetadata.create("tool", fieldValue)))
+                .description("Tool handling the manifest (repo or jiri)")
+                .build(),
+            Field.ofEnum(
+                    UpdateStats.Phase.class,
+                    "phase",
+                    (metadataBuilder, fieldValue) ->
+                        metadataBuilder
+                            .pluginName("supermanifest")
+                            .addPluginMetadata(PluginMetadata.create("phase", fieldValue)))
+                .description("Phase of the update")
+                .build());
+    this.configLoadTimer =
+        metrics.newTimer(
+            "supermanifest/config_load_latency",
+            new Description("Time taken to load the supermanifest configuration"));
+    this.syncLagTimer =
+        metrics.newTimer(
+            "supermanifest/sync_lag",
+            new Description(
+                "Time from a manifest ref update to the update of a superproject fed by it,"
+                    + " including queueing"),
+            Field.ofEnum(
+                    ConfigEntry.ToolType.class,
+                    "tool",
+                    (metadataBuilder, fieldValue) ->
+                        metadataBuilder
+                            .pluginName("supermanifest")
+                            .addPluginMetadata(PluginMetadata.create("tool", fieldValue)))
+                .description("Tool handling the manifest (repo or jiri)")
+                .build());
+    newWorkHistogram(
+        metrics, UpdateStats.Counter.PROJECTS, "Projects in the manifest", "projects");
+    newWorkHistogram(
+        metrics,
+        UpdateStats.Counter.MANIFEST_FILES,
+        "Manifest files parsed, including included or imported ones",
+        "files");
+    newWorkHistogram(
+        metrics,
+        UpdateStats.Counter.BYTES_READ,
+        "Bytes of manifest files read",
+        Description.Units.BYTES);
+    newWorkHistogram(
+        metrics, UpdateStats.Counter.REPOS_OPENED, "Repositories opened", "repositories");
+    newWorkHistogram(
+        metrics, UpdateStats.Counter.SHA1_CALLS, "Project refs resolved to a SHA-1", "calls");
+    newWorkHistogram(
+        metrics, UpdateStats.Counter.SUBMODULES, "Submodules in the superproject", "submodules");
+    newWorkHistogram(
+        metrics,
+        UpdateStats.Counter.NESTED_PROJECTS,
+        "Projects skipped as nested in another project",
+        "projects");
+    CallbackMetric1<String, Long> syncAge =
+        metrics.newCallbackMetric(
+            "supermanifest/sync_age",
+            Long.class,
+            new Description("Time since the last successful update of a superproject branch")
+                .setGauge()
+                .setUnit(Description.Units.MILLISECONDS),
+            Field.ofString(
+                    "destination",
+                    (metadataBuilder, fieldValue) ->
+                        metadataBuilder
+                            .pluginName("supermanifest")
+                            .addPluginMetadata(PluginMetadata.create("destination", fieldValue)))
+                .description("Superproject and branch, as project:branch")
+                .build());
+    metrics.newTrigger(
+        syncAge,
+        () -> {
+          long now = System.currentTimeMillis();
+          lastSuccessfulSync.forEach((dest, time) -> syncAge.set(dest, now - time));
+          syncAge.prune();
+        });
+  }
+
+  private void newWorkHistogram(
+      MetricMaker metrics, UpdateStats.Counter counter, String description, String unit) {
+    workHistograms.put(
+        counter,
+        metrics.newHistogram(
+            "supermanifest/work/" + counter.name().toLowerCase(Locale.US),
+            new Description(description + " per superproject update")
+                .setCumulative()
+                .setUnit(unit),
+            Field.ofEnum(
+                    ConfigEntry.ToolType.class,
+                    "tool",
+                    (metadataBuilder, fieldValue) ->
+                        metadataBuilder
+                            .pluginName("supermanifest")
+                            .addPluginMetadata(PluginMetadata.create("tool", fieldValue)))
+                .description("Tool handling the manifest (repo or jiri)")
+                .build()));
   }
 
   @FormatMethod
@@ -221,7 +375,10 @@ public class SuperManifestRefUpdatedListener
   }
 
   private ImmutableSet<ConfigEntry> getConfiguration() throws NoSuchProjectException {
-    Set<ConfigEntry> entries = configParser.parseConfiguration();
+    Set<ConfigEntry> entries;
+    try (Timer0.Context ignored = configLoadTimer.start()) {
+      entries = configParser.parseConfiguration();
+    }
     Set<ConfigEntry> filtered = new HashSet<>();
     for (ConfigEntry e : entries) {
       if (!checkRepoExists(e.srcRepoKey)) {
@@ -253,30 +410,46 @@ public class SuperManifestRefUpdatedListener
       return;
     }
 
+    long received = System.nanoTime();
     try {
       List<ConfigEntry> relevantConfigEntries =
           findRelevantConfigs(getConfiguration(), event.getProjectName(), event.getRefName());
-      for (ConfigEntry relevantConfig : relevantConfigEntries) {
-        try {
-          updateForConfig(relevantConfig, event.getRefName());
-        } catch (ConfigInvalidException | IOException | GitAPIException e) {
-          // We only want the trace up to here. We could recurse into the exception, but this at
-          // least
-          // trims the very common jgit.gitrepo.RepoCommand.RemoteUnavailableException.
-          StackTraceElement here = Thread.currentThread().getStackTrace()[1];
-          e.setStackTrace(trimStack(e.getStackTrace(), here));
-
-          // We are in an asynchronously called listener, so there is no user action to give
-          // feedback to. We log the error, but it would be nice if we could surface these logs
-          // somewhere.  Perhaps we could store these as commits in some special branch (but in
-          // what repo?).
-          StringWriter sw = new StringWriter();
-          PrintWriter pw = new PrintWriter(sw);
-          e.printStackTrace(pw);
-          error(
-              "update for %s (ref %s) failed: %s",
-              relevantConfig.toString(), event.getRefName(), sw);
-        }
+      Map<ConfigEntry, Exception> failures =
+          updateAll(
+              relevantConfigEntries,
+              event.getRefName(),
+              UpdateObserver.both(
+                  recentRuns.observer(RecentRuns.Trigger.REF_UPDATE),
+                  new UpdateObserver() {
+                    @Override
+                    public void finished(
+                        ConfigEntry configEntry,
+                        String refName,
+                        UpdateStats stats,
+                        Exception error) {
+                      if (error == null) {
+                        syncLagTimer.record(
+                            configEntry.toolType,
+                            System.nanoTime() - received,
+                            TimeUnit.NANOSECONDS);
+                      }
+                    }
+                  }));
+      for (Map.Entry<ConfigEntry, Exception> failure : failures.entrySet()) {
+        Exception e = failure.getValue();
+        // We only want the trace up to the update, which may have run on another thread. We could
+        // recurse into the exception, but this at least trims the very common
+        // jgit.gitrepo.RepoCommand.RemoteUnavailableException.
+        e.setStackTrace(trimStack(e.getStackTrace(), UPDATE_FRAME));
+
+        // We are in an asynchronously called listener, so there is no user action to give
+        // feedback to. We log the error, but it would be nice if we could surface these logs
+        // somewhere.  Perhaps we could store these as commits in some special branch (but in
+        // what repo?).
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        e.printStackTrace(pw);
+        error("update for %s (ref %s) failed: %s", failure.getKey(), event.getRefName(), sw);
       }
     } catch (ConfigInvalidException e) {
       error(
@@ -291,7 +464,7 @@ public class SuperManifestRefUpdatedListener
   }
 
   @Override
-  public Response<?> apply(BranchResource resource, BranchInput input)
+  public Response<?> apply(BranchResource resource, UpdateManifestInput input)
       throws AuthException, PermissionBackendException, PreconditionFailedException {
     permissionBackend.currentUser().check(GlobalPermission.ADMINISTRATE_SERVER);
     String manifestProject = resource.getBranchKey().project().get();
@@ -333,21 +506,272 @@ public class SuperManifestRefUpdatedListener
           manifestProject, manifestBranch);
       return Response.none();
     }
-    for (ConfigEntry configEntry : relevantConfigs) {
+
+    if (input != null && input.async) {
+      UpdateJob job =
+          jobs.create(
+              manifestProject,
+              resource.getRef(),
+              relevantConfigs.stream()
+                  .map(c -> c.getActualDest(resource.getRef()))
+                  .collect(Collectors.toList()));
       try {
-        updateForConfig(configEntry, resource.getRef());
-      } catch (ConfigInvalidException e) {
-        errorWithCause(e, "Invalid conf processing %s:%s", manifestProject, manifestBranch);
-        throw new PreconditionFailedException(e.getMessage());
-      } catch (GitAPIException | IOException e) {
-        errorWithCause(e, "Internal error processing %s:%s", manifestProject, manifestBranch);
-        return Response.withStatusCode(500, "Internal error: " + e.getMessage());
+        executor
+            .getJobs()
+            .submit(
+                () -> {
+                  job.start();
+                  try {
+                    Map<ConfigEntry, Exception> failures =
+                        updateAll(
+                            relevantConfigs,
+                            resource.getRef(),
+                            UpdateObserver.both(
+                                recentRuns.observer(RecentRuns.Trigger.MANUAL), job));
+                    for (Map.Entry<ConfigEntry, Exception> failure : failures.entrySet()) {
+                      errorWithCause(
+                          failure.getValue(),
+                          "Job %s failed processing %s:%s (%s)",
+                          job.getId(),
+                          manifestProject,
+                          manifestBranch,
+                          failure.getKey());
+                    }
+                  } finally {
+                    job.finish();
+                  }
+                });
+      } catch (RejectedExecutionException e) {
+        job.fail("the plugin is shutting down");
+        warn(
+            "manual trigger for %s:%s: cannot run job %s",
+            manifestProject, manifestBranch, job.getId());
+        return Response.withStatusCode(503, "The plugin is shutting down");
+      }
+      info(
+          "manual trigger for %s:%s queued as job %s",
+          manifestProject, manifestBranch, job.getId());
+      return Response.withStatusCode(202, job.toInfo());
+    }
+
+    Map<ConfigEntry, Exception> failures =
+        updateAll(
+            relevantConfigs, resource.getRef(), recentRuns.observer(RecentRuns.Trigger.MANUAL));
+    for (Map.Entry<ConfigEntry, Exception> failure : failures.entrySet()) {
+      if (failure.getValue() instanceof ConfigInvalidException) {
+        errorWithCause(
+            failure.getValue(),
+            "Invalid conf processing %s:%s (%s)",
+            manifestProject,
+            manifestBranch,
+            failure.getKey());
+        throw new PreconditionFailedException(failure.getValue().getMessage());
       }
     }
+
+    String internalError = null;
+    for (Map.Entry<ConfigEntry, Exception> failure : failures.entrySet()) {
+      errorWithCause(
+          failure.getValue(),
+          "Internal error processing %s:%s (%s)",
+          manifestProject,
+          manifestBranch,
+          failure.getKey());
+      if (internalError == null) {
+        internalError = failure.getValue().getMessage();
+      }
+    }
+    if (internalError != null) {
+      return Response.withStatusCode(500, "Internal error: " + internalError);
+    }
     return Response.ok();
   }
 
-  private List<ConfigEntry> findRelevantConfigs(
+  /**
+   * Regenerates every configured destination, including every branch matching a wildcard entry.
+   *
+   * <p>The updates run in the background, at most {@code parallelism} at a time so that updates
+   * triggered by ref updates still get threads. Destinations that are up to date are skipped.
+   *
+   * @return the job following the updates
+   */
+  UpdateJob reconcile(int parallelism) throws NoSuchProjectException, IOException {
+    // Grouped by source, so that the updates sharing a cache run close together.
+    Map<String, List<PendingUpdate>> bySource = new LinkedHashMap<>();
+    for (ConfigEntry configEntry : getConfiguration()) {
+      for (String refName : findSourceRefs(configEntry)) {
+        PendingUpdate update = new PendingUpdate(configEntry, refName);
+        bySource.computeIfAbsent(update.getSource(), k -> new ArrayList<>()).add(update);
+      }
+    }
+    List<PendingUpdate> updates = new ArrayList<>();
+    bySource.values().forEach(updates::addAll);
+    UpdateJob job =
+        jobs.create(
+            null,
+            null,
+            updates.stream()
+                .map(u -> u.configEntry.getActualDest(u.refName))
+                .collect(Collectors.toList()));
+    info("reconciling %d destinations as job %s", updates.size(), job.getId());
+    executor
+        .getReconciler()
+        .submit(
+            () -> {
+              job.start();
+              try {
+                for (Map.Entry<PendingUpdate, Exception> failure :
+                    updateAll(
+                            updates,
+                            UpdateObserver.both(
+                                recentRuns.observer(RecentRuns.Trigger.RECONCILE), job),
+                            parallelism)
+                        .entrySet()) {
+                  errorWithCause(
+                      failure.getValue(),
+                      "Job %s failed processing %s (%s)",
+                      job.getId(),
+                      failure.getKey().refName,
+                      failure.getKey().configEntry);
+                }
+              } finally {
+                job.finish();
+              }
+            });
+    return job;
+  }
+
+  /** @return the existing source refs that {@code configEntry} writes a destination for */
+  private List<String> findSourceRefs(ConfigEntry configEntry) throws IOException {
+    List<String> refNames = new ArrayList<>();
+    try (GerritRemoteReader reader =
+        new GerritRemoteReader(
+            repoManagerFactory.create(configEntry), canonicalWebUrl.toString())) {
+      Repository srcRepo = reader.openRepository(configEntry.getSrcRepoKey().get());
+      if (configEntry.getDestBranch().contains("*")) {
+        for (Ref ref : srcRepo.getRefDatabase().getRefsByPrefix(RefNames.REFS_HEADS)) {
+          if (configEntry.matchesSource(configEntry.getSrcRepoKey().get(), ref.getName())) {
+            refNames.add(ref.getName());
+          }
+        }
+      } else if (srcRepo.exactRef(configEntry.getSrcRef()) != null) {
+        refNames.add(configEntry.getSrcRef());
+      }
+    }
+    return refNames;
+  }
+
+  /**
+   * Updates the destinations of all {@code configEntries} for the update of {@code refName}.
+   *
+   * <p>The destinations are independent, so they are updated in parallel on the plugin executor.
+   * Updates to the same destination go through a {@link DestinationQueue}, so they run one at a
+   * time and in the order they were requested. All updates share one {@link SourceCache}, so a
+   * manifest feeding several destinations is read, parsed and resolved only once.
+   *
+   * @param observer notified before and after each update
+   * @return the failed entries with their exception, in the order of {@code configEntries}
+   */
+  private Map<ConfigEntry, Exception> updateAll(
+      List<ConfigEntry> configEntries, String refName, UpdateObserver observer) {
+    List<PendingUpdate> updates = new ArrayList<>();
+    for (ConfigEntry configEntry : configEntries) {
+      updates.add(new PendingUpdate(configEntry, refName));
+    }
+    Map<ConfigEntry, Exception> failures = new LinkedHashMap<>();
+    for (Map.Entry<PendingUpdate, Exception> failure :
+        updateAll(updates, observer, Integer.MAX_VALUE).entrySet()) {
+      failures.put(failure.getKey().configEntry, failure.getValue());
+    }
+    return failures;
+  }
+
+  /**
+   * Like {@link #updateAll(List, String, UpdateObserver)}, for updates that may come from
+   * different source refs.
+   *
+   * <p>The updates of each source ref share a {@link SourceCache}, which is dropped once they are
+   * all done, so that what is read from many sources is not all kept in memory.
+   *
+   * @param parallelism the maximum number of {@code updates} running at the same time
+   * @return the failed updates with their exception
+   */
+  private Map<PendingUpdate, Exception> updateAll(
+      List<PendingUpdate> updates, UpdateObserver observer, int parallelism) {
+    Map<PendingUpdate, Exception> failures = new LinkedHashMap<>();
+    Map<String, SourceCache> caches = new HashMap<>();
+    Multiset<String> pending = HashMultiset.create();
+    for (PendingUpdate update : updates) {
+      pending.add(update.getSource());
+    }
+    // Don't bother handing over a single update, unless it has to wait for another one.
+    Executor updateExecutor = updates.size() == 1 ? MoreExecutors.directExecutor() : executor.get();
+    Semaphore running = new Semaphore(parallelism);
+    Map<PendingUpdate, Future<?>> futures = new LinkedHashMap<>();
+    for (PendingUpdate update : updates) {
+      try {
+        running.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failures.put(update, e);
+        continue;
+      }
+      String source = update.getSource();
+      SourceCache cache;
+      synchronized (caches) {
+        cache = caches.computeIfAbsent(source, k -> new SourceCache());
+      }
+      futures.put(
+          update,
+          destinations
+              .submit(
+                  update.configEntry.getActualDest(update.refName),
+                  updateExecutor,
+                  () -> updateForConfigInOrder(update.configEntry, update.refName, cache, observer))
+              .whenComplete(
+                  (r, e) -> {
+                    running.release();
+                    synchronized (caches) {
+                      if (pending.remove(source, 1) == 1) {
+                        caches.remove(source);
+                      }
+                    }
+                  }));
+    }
+    for (Map.Entry<PendingUpdate, Future<?>> f : futures.entrySet()) {
+      try {
+        f.getValue().get();
+      } catch (ExecutionException e) {
+        failures.put(
+            f.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failures.put(f.getKey(), e);
+      }
+    }
+    return failures;
+  }
+
+  private void updateForConfigInOrder(
+      ConfigEntry configEntry, String refName, SourceCache cache, UpdateObserver observer)
+      throws ConfigInvalidException, IOException, GitAPIException {
+    Exception failure = null;
+    UpdateStats stats = new UpdateStats(configEntry.getActualDest(refName));
+    try {
+      observer.started(configEntry, refName);
+      updateForConfig(configEntry, refName, cache, stats);
+      lastSuccessfulSync.put(configEntry.getActualDest(refName), System.currentTimeMillis());
+    } catch (Exception e) {
+      failure = e;
+      throw e;
+    } finally {
+      stats.stop();
+      logIfSlow(configEntry, refName, stats);
+      observer.finished(configEntry, refName, stats, failure);
+    }
+  }
+
+  static List<ConfigEntry> findRelevantConfigs(
       ImmutableSet<ConfigEntry> config, String project, String refName)
       throws ConfigInvalidException {
     List<ConfigEntry> relevantConfigs =
@@ -356,7 +780,7 @@ public class SuperManifestRefUpdatedListener
     // Don't write twice to same destination (no overlaps)
     Map<String, ConfigEntry> destinations = new HashMap<>();
     for (ConfigEntry configEntry : relevantConfigs) {
-      String key = configEntry.getDestRepoKey() + ":" + configEntry.getActualDestBranch(refName);
+      String key = configEntry.getActualDest(refName);
       if (destinations.containsKey(key)) {
         throw new ConfigInvalidException(
             String.format(
@@ -368,12 +792,31 @@ public class SuperManifestRefUpdatedListener
     return relevantConfigs;
   }
 
-  private void updateForConfig(ConfigEntry configEntry, String refName)
+  private void logIfSlow(ConfigEntry configEntry, String refName, UpdateStats stats) {
+    if (slowUpdateThresholdMillis <= 0 || stats.getDurationMillis() < slowUpdateThresholdMillis) {
+      return;
+    }
+    warn(
+        "slow update of %s: entry=%s src_sha=%s result=%s duration_ms=%d phases_ms=%s counts=%s"
+            + " cache_hits=%d cache_misses=%d",
+        configEntry.getActualDest(refName),
+        configEntry,
+        stats.getSourceRevision(),
+        stats.getResult(),
+        stats.getDurationMillis(),
+        stats.getPhaseMillis(),
+        stats.getCounts(),
+        stats.getCacheHits(),
+        stats.getCacheMisses());
+  }
+
+  private void updateForConfig(
+      ConfigEntry configEntry, String refName, SourceCache cache, UpdateStats stats)
       throws ConfigInvalidException, IOException, GitAPIException {
     SubModuleUpdater subModuleUpdater;
     switch (configEntry.getToolType()) {
       case Repo:
-        subModuleUpdater = new RepoUpdater(serverIdent.get());
+        subModuleUpdater = new RepoUpdater(serverIdent.get(), executor.getResolver());
         break;
       case Jiri:
         subModuleUpdater = new JiriUpdater(serverIdent.get(), canonicalWebUrl, downloadScheme);
@@ -387,9 +830,17 @@ public class SuperManifestRefUpdatedListener
     try (RefUpdateContext ctx = RefUpdateContext.open(PLUGIN);
         GerritRemoteReader reader =
             new GerritRemoteReader(
-                repoManagerFactory.create(configEntry), canonicalWebUrl.toString());
+                repoManagerFactory.create(configEntry),
+                canonicalWebUrl.toString(),
+                cache,
+                stats,
+                readLimits);
         Timer1.Context<ConfigEntry.ToolType> ignored =
             superprojectCommitTimer.start(configEntry.toolType)) {
+      Ref srcRef = reader.openRepository(configEntry.getSrcRepoKey().get()).exactRef(refName);
+      if (srcRef != null) {
+        stats.setSourceRevision(srcRef.getObjectId().name());
+      }
       subModuleUpdater.update(reader, configEntry, refName);
       status = "OK";
     } catch (ConcurrentRefUpdateException e) {
@@ -399,16 +850,30 @@ public class SuperManifestRefUpdatedListener
       status = "INVALID_SUBMODULE_CONFIGURATION";
       throw e;
     } catch (GitAPIException e) {
-      status = "INTERNAL";
+      // RepoCommand wraps the errors of the reader.
+      status = readLimitExceeded(e) ? "READ_LIMIT_EXCEEDED" : "INTERNAL";
       throw e;
     } catch (IOException e) {
-      status = "IO_ERROR";
+      status = readLimitExceeded(e) ? "READ_LIMIT_EXCEEDED" : "IO_ERROR";
       throw e;
     } finally {
+      stats.setResult(status);
       manifestUpdateResultCounter.increment(status);
+      for (Map.Entry<UpdateStats.Phase, Long> phase : stats.getPhaseNanos().entrySet()) {
+        phaseTimer.record(
+            configEntry.toolType, phase.getKey(), phase.getValue(), TimeUnit.NANOSECONDS);
+      }
+      for (Map.Entry<UpdateStats.Counter, Long> count : stats.getCounts().entrySet()) {
+        workHistograms.get(count.getKey()).record(configEntry.toolType, count.getValue());
+      }
     }
   }
 
+  private static boolean readLimitExceeded(Exception e) {
+    return Throwables.getCausalChain(e).stream()
+        .anyMatch(t -> t instanceof ReadLimits.ExceededException);
+  }
+
   /**
    * Remove boring stack frames. This retains the innermost frames up to and including the {@code
    * class#method} passed in {@code ref}.
@@ -427,33 +892,78 @@ public class SuperManifestRefUpdatedListener
     return trimmed.toArray(new StackTraceElement[trimmed.size()]);
   }
 
+  /** @return the stack trace of {@code e}, trimmed like the ones that are logged */
+  static String trimmedStackTrace(Exception e) {
+    StringBuilder b = new StringBuilder().append(e);
+    for (StackTraceElement frame : trimStack(e.getStackTrace(), UPDATE_FRAME)) {
+      b.append("\n\tat ").append(frame);
+    }
+    for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+      b.append("\nCaused by: ").append(cause);
+    }
+    return b.toString();
+  }
+
   // GerritRemoteReader is for injecting Gerrit's Git implementation into JGit.
   static class GerritRemoteReader implements RepoCommand.RemoteReader, AutoCloseable {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
     private final String canonicalWebUrl;
     private final SuperManifestRepoManager repoManager;
+    private final SourceCache cache;
+    private final UpdateStats stats;
+    private final ReadSession session;
 
     GerritRemoteReader(
         SuperManifestRepoManager repoManager, @CanonicalWebUrl String canonicalWebUrl) {
+      this(
+          repoManager, canonicalWebUrl, new SourceCache(), new UpdateStats(), ReadLimits.UNLIMITED);
+    }
+
+    GerritRemoteReader(
+        SuperManifestRepoManager repoManager,
+        @CanonicalWebUrl String canonicalWebUrl,
+        SourceCache cache,
+        UpdateStats stats,
+        ReadLimits limits) {
       this.repoManager = repoManager;
       this.canonicalWebUrl = canonicalWebUrl;
+      this.cache = cache;
+      this.stats = stats;
+      this.session = new ReadSession(limits, stats);
+    }
+
+    /** @return the cache shared with the other updates of the same source ref update */
+    SourceCache getCache() {
+      return cache;
+    }
+
+    /** @return the stats of the update this reader is used for */
+    UpdateStats getStats() {
+      return stats;
+    }
+
+    /** @return the session reading files for the update this reader is used for */
+    ReadSession getSession() {
+      return session;
     }
 
     @Override
     public ObjectId sha1(String uriStr, String refName) throws GitAPIException {
+      stats.count(UpdateStats.Counter.SHA1_CALLS, 1);
       // This is a (mis)feature of JGit, which ignores SHA1s but only if ignoreRemoteFailures
       // is set.
       if (ObjectId.isId(refName)) {
         return ObjectId.fromString(refName);
       }
 
+      // Destinations fed by the same manifest, and the digest pass before RepoCommand, ask for the
+      // same refs, so only the first lookup goes to the ref database.
+      return cache.sha1(uriStr, refName, stats, () -> resolve(uriStr, refName));
+    }
+
+    private ObjectId resolve(String uriStr, String refName) throws GitAPIException {
       try {
-        // When the remote is fetch="<relative path>" the manifest parser uses a repoName as URI.
-        // Do a poor man's guessing if we have a repoName or URI
-        Repository repo =
-            uriStr.contains("://")
-                ? repoManager.openByUri(uriStr)
-                : repoManager.openByName(Project.nameKey(uriStr));
+        Repository repo = open(uriStr);
         Ref ref = repo.findRef(refName);
         if (ref == null || ref.getObjectId() == null) {
           logger.atWarning().log(
@@ -479,23 +989,26 @@ public class SuperManifestRefUpdatedListener
     @Override
     public RemoteFile readFileWithMode(String uriStr, String ref, String path)
         throws GitAPIException, IOException {
+      return session.read(open(uriStr), ref, path);
+    }
+
+    /**
+     * Like {@link #readFileWithMode}, for several paths at the same ref, which are read in one walk
+     * of its tree.
+     *
+     * @return the files found, by path
+     */
+    Map<String, RemoteFile> readFilesWithMode(String uriStr, String ref, Set<String> paths)
+        throws IOException {
+      return session.readAll(open(uriStr), ref, paths);
+    }
+
+    private Repository open(String uriStr) throws IOException {
       // When the remote is fetch="<relative path>" the manifest parser uses a repoName as URI.
       // Do a poor man's guessing if we have a repoName or URI
-      Repository repo =
-          uriStr.contains("://")
-              ? repoManager.openByUri(uriStr)
-              : repoManager.openByName(Project.nameKey(uriStr));
-      Ref r = repo.findRef(ref);
-      ObjectId objectId = r == null ? repo.resolve(ref) : r.getObjectId();
-      if (objectId == null) {
-        throw new RevisionSyntaxException(
-            String.format("repo %s does not have ref %s", repo.toString(), ref), ref);
-      }
-      RevCommit commit = repo.parseCommit(objectId);
-      TreeWalk tw = TreeWalk.forPath(repo, path, commit.getTree());
-      return new RemoteFile(
-          tw.getObjectReader().open(tw.getObjectId(0)).getCachedBytes(Integer.MAX_VALUE),
-          tw.getFileMode(0));
+      return uriStr.contains("://")
+          ? repoManager.openByUri(uriStr)
+          : repoManager.openByName(Project.nameKey(uriStr));
     }
 
     public Repository openRepository(String name) throws IOException {
@@ -504,6 +1017,8 @@ public class SuperManifestRefUpdatedListener
 
     @Override
     public void close() {
+      stats.count(UpdateStats.Counter.REPOS_OPENED, repoManager.getOpenedCount());
+      session.close();
       try {
         repoManager.close();
       } catch (Exception e) {
@@ -512,12 +1027,32 @@ public class SuperManifestRefUpdatedListener
     }
   }
 
-  // AutoCloseable so implementations can keep a cache
+  /** The update of the destination of {@code configEntry} for the update of {@code refName}. */
+  private static class PendingUpdate {
+    final ConfigEntry configEntry;
+    final String refName;
+
+    PendingUpdate(ConfigEntry configEntry, String refName) {
+      this.configEntry = configEntry;
+      this.refName = refName;
+    }
+
+    /** @return the source project and ref the update reads */
+    String getSource() {
+      return configEntry.getSrcRepoKey().get() + ":" + refName;
+    }
+  }
+
+  // AutoCloseable so implementations can keep a cache. Implementations must be thread-safe, as
+  // the project refs of a manifest are resolved concurrently.
   public interface SuperManifestRepoManager extends AutoCloseable {
     Repository openByUri(String uriStr) throws IOException;
 
     Repository openByName(Project.NameKey repoName) throws IOException;
 
+    /** @return how many distinct repositories were opened since this manager was created */
+    int getOpenedCount();
+
     interface Factory {
       SuperManifestRepoManager create(ConfigEntry c);
     }
@@ -527,6 +1062,7 @@ public class SuperManifestRefUpdatedListener
     private final HashMap<Project.NameKey, Repository> repos;
     private final GitRepositoryManager repoManager;
     private final String canonicalWebUrl;
+    private int opened;
 
     @Inject
     GerritSuperManifestRepoManager(
@@ -542,15 +1078,38 @@ public class SuperManifestRefUpdatedListener
 
     @Override
     public Repository openByName(Project.NameKey name) throws IOException {
-      if (repos.containsKey(name)) {
-        return repos.get(name);
+      synchronized (repos) {
+        Repository repo = repos.get(name);
+        if (repo != null) {
+          return repo;
+        }
       }
 
+      // Opened outside of the lock so that lookups in other repositories are not blocked.
+      SuperManifestEvents.RepositoryOpenEvent event =
+          new SuperManifestEvents.RepositoryOpenEvent();
+      event.begin();
       Repository repo = repoManager.openRepository(name);
-      repos.put(name, repo);
+      event.project = name.get();
+      event.commit();
+      synchronized (repos) {
+        Repository existing = repos.putIfAbsent(name, repo);
+        if (existing != null) {
+          repo.close();
+          return existing;
+        }
+        opened++;
+      }
       return repo;
     }
 
+    @Override
+    public int getOpenedCount() {
+      synchronized (repos) {
+        return opened;
+      }
+    }
+
     @Override
     public Repository openByUri(String uriStr) throws IOException {
       // A URL in this host is <canonicalWebUrl>/<repoName>.
@@ -583,10 +1142,12 @@ public class SuperManifestRefUpdatedListener
 
     @Override
     public void close() {
-      for (Repository repo : repos.values()) {
-        repo.close();
+      synchronized (repos) {
+        for (Repository repo : repos.values()) {
+          repo.close();
+        }
+        repos.clear();
       }
-      repos.clear();
     }
   }
 }
@@ -0,0 +1,131 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Digest over the fully resolved content of a superproject.
+ *
+ * <p>The digest covers everything that ends up in the superproject tree (submodule paths, urls,
+ * resolved SHA-1s, branches, shallow hints and copied or linked files), but not the manifest XML
+ * itself. Reordering or commenting the manifest, or bumping a project to a ref that still resolves
+ * to the same SHA-1, yields the same digest, so the update can be skipped before building the
+ * tree.
+ */
+class SuperprojectDigest {
+  /** Commit message footer holding the digest of the commit's tree. */
+  static final String FOOTER = "Supermanifest-Digest";
+
+  private final List<String> records = new ArrayList<>();
+
+  /** Records a setting of the configuration entry that changes the generated tree. */
+  SuperprojectDigest addOption(String name, Object value) {
+    return add("option", name, String.valueOf(value));
+  }
+
+  /**
+   * Records a submodule.
+   *
+   * @param sha1 the resolved commit, or {@code null} if the project could not be resolved and is
+   *     left out of the tree
+   * @param branch the branch (or tag) recorded in {@code .gitmodules}, or {@code null}
+   * @param upstream the upstream branch of a project pinned to a SHA-1, which repo records in
+   *     {@code .gitmodules}, or {@code null}
+   */
+  SuperprojectDigest addSubmodule(
+      String name,
+      String path,
+      String url,
+      AnyObjectId sha1,
+      String branch,
+      String upstream,
+      boolean shallow) {
+    return add(
+        "submodule",
+        path,
+        name,
+        url,
+        sha1 != null ? sha1.name() : "-",
+        branch != null ? branch : "-",
+        upstream != null ? upstream : "-",
+        String.valueOf(shallow));
+  }
+
+  /**
+   * Records a file copied or linked from a submodule. The content is fully determined by the
+   * submodule's resolved SHA-1 and the source path, so there is no need to read it.
+   */
+  SuperprojectDigest addFile(String kind, String projectPath, String src, String dest) {
+    return add(kind, projectPath, src, dest);
+  }
+
+  private SuperprojectDigest add(String... fields) {
+    records.add(String.join("\0", fields));
+    return this;
+  }
+
+  /** @return hex digest of all records, independent of the order in which they were added */
+  String compute() {
+    Collections.sort(records);
+    Hasher h = Hashing.sha256().newHasher();
+    for (String r : records) {
+      h.putString(r, UTF_8).putByte((byte) '\n');
+    }
+    return h.hash().toString();
+  }
+
+  /** @return the digest stored in the footer of {@code commit}, or {@code null} */
+  static String fromFooter(RevCommit commit) {
+    List<String> values = commit.getFooterLines(FOOTER);
+    return values.isEmpty() ? null : values.get(values.size() - 1).trim();
+  }
+
+  /** @return commit message with the digest footer appended */
+  static String withFooter(String message, String digest) {
+    return message.trim() + "\n\n" + FOOTER + ": " + digest + "\n";
+  }
+
+  /**
+   * Reads a digest stored as a file in the tree of {@code commitId}.
+   *
+   * @return the digest, or {@code null} if the commit has no such file
+   */
+  static String fromFile(Repository repo, ObjectId commitId, String path) throws IOException {
+    try (RevWalk rw = new RevWalk(repo)) {
+      RevCommit commit = rw.parseCommit(commitId);
+      try (TreeWalk tw = TreeWalk.forPath(rw.getObjectReader(), path, commit.getTree())) {
+        if (tw == null) {
+          return null;
+        }
+        return new String(rw.getObjectReader().open(tw.getObjectId(0)).getCachedBytes(), UTF_8)
+            .trim();
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.Paths;
+import org.eclipse.jgit.util.SystemReader;
+
+/**
+ * Writes the tree of a superproject from its files and gitlinks, with {@link TreeFormatter}.
+ *
+ * <p>Unlike a {@code DirCache}, the directories are built straight from the paths, and each one is
+ * compared with the same directory of the previous superproject tree. Only the trees that differ
+ * are formatted and inserted: when one gitlink changes, only the trees on its path are written.
+ */
+class SuperprojectTreeWriter {
+  private static class Entry {
+    final byte[] name;
+    // null for directories.
+    final FileMode mode;
+    final ObjectId id;
+    // null for files and gitlinks.
+    final Map<String, Entry> children;
+
+    Entry(String name, FileMode mode, ObjectId id) {
+      this.name = name.getBytes(UTF_8);
+      this.mode = mode;
+      this.id = id;
+      this.children = null;
+    }
+
+    Entry(String name) {
+      this.name = name.getBytes(UTF_8);
+      this.mode = null;
+      this.id = null;
+      this.children = new HashMap<>();
+    }
+
+    int modeBits() {
+      return mode != null ? mode.getBits() : FileMode.TREE.getBits();
+    }
+  }
+
+  private final Entry root = new Entry("");
+  private final ObjectReader reader;
+  private final ObjectInserter inserter;
+  // Including the root.
+  private int trees = 1;
+  private int treesWritten;
+
+  SuperprojectTreeWriter(ObjectReader reader, ObjectInserter inserter) {
+    this.reader = reader;
+    this.inserter = inserter;
+  }
+
+  /**
+   * Adds a file or a gitlink.
+   *
+   * @throws IllegalArgumentException if {@code path} is not a valid git path, was already added, or
+   *     is a directory of another path, or has a file as directory
+   */
+  void add(String path, FileMode mode, AnyObjectId id) {
+    try {
+      // Like DirCacheEntry: no empty components, ".", "..", ".git" or the like.
+      SystemReader.getInstance().checkPath(path);
+    } catch (CorruptObjectException e) {
+      throw new IllegalArgumentException(
+          String.format("invalid path %s: %s", path, e.getMessage()), e);
+    }
+    Entry dir = root;
+    int start = 0;
+    int slash;
+    while ((slash = path.indexOf('/', start)) >= 0) {
+      String name = path.substring(start, slash);
+      Entry child = dir.children.get(name);
+      if (child == null) {
+        child = new Entry(name);
+        dir.children.put(name, child);
+        trees++;
+      }
+      checkArgument(child.children != null, "%s is in file %s", path, path.substring(0, slash));
+      dir = child;
+      start = slash + 1;
+    }
+    String name = path.substring(start);
+    Entry previous = dir.children.putIfAbsent(name, new Entry(name, mode, id.copy()));
+    checkArgument(previous == null, "%s already added", path);
+  }
+
+  /**
+   * Inserts the trees that are not in {@code previousTree}. The trees of {@code previousTree} are
+   * read, but the ones that did not change are neither formatted nor hashed again.
+   *
+   * @param previousTree the tree of the previous superproject commit, or {@code null}
+   * @return the id of the root tree
+   */
+  ObjectId write(ObjectId previousTree) throws IOException {
+    return write(root, previousTree);
+  }
+
+  /** @return how many trees the added paths make up, including the root */
+  int getTrees() {
+    return trees;
+  }
+
+  /** @return how many trees {@link #write} inserted */
+  int getTreesWritten() {
+    return treesWritten;
+  }
+
+  /**
+   * @param previous the tree that was at the path of {@code dir}, or {@code null}
+   * @return the id of the tree of {@code dir}
+   */
+  private ObjectId write(Entry dir, ObjectId previous) throws IOException {
+    List<Entry> entries = new ArrayList<>(dir.children.values());
+    entries.sort(
+        (a, b) ->
+            Paths.compare(
+                a.name, 0, a.name.length, a.modeBits(), b.name, 0, b.name.length, b.modeBits()));
+
+    // Both are in tree order, so the previous entries are walked alongside.
+    CanonicalTreeParser p =
+        previous != null ? new CanonicalTreeParser(null, reader, previous) : null;
+    boolean same = p != null;
+    ObjectId[] ids = new ObjectId[entries.size()];
+    for (int i = 0; i < entries.size(); i++) {
+      Entry e = entries.get(i);
+      int cmp = -1;
+      while (p != null && !p.eof() && (cmp = compare(p, e)) < 0) {
+        // Removed since the previous tree.
+        same = false;
+        p.next();
+      }
+      boolean found = p != null && !p.eof() && cmp == 0 && p.getEntryRawMode() == e.modeBits();
+      if (e.children != null) {
+        ids[i] = write(e, found ? p.getEntryObjectId() : null);
+        same &= found && ids[i].compareTo(p.idBuffer(), p.idOffset()) == 0;
+      } else {
+        ids[i] = e.id;
+        same &= found && e.id.compareTo(p.idBuffer(), p.idOffset()) == 0;
+      }
+      if (p != null && !p.eof() && cmp == 0) {
+        p.next();
+      }
+    }
+    if (same && p.eof()) {
+      return previous;
+    }
+
+    TreeFormatter fmt = new TreeFormatter();
+    for (int i = 0; i < entries.size(); i++) {
+      Entry e = entries.get(i);
+      fmt.append(e.name, e.children != null ? FileMode.TREE : e.mode, ids[i]);
+    }
+    treesWritten++;
+    return fmt.insertTo(inserter);
+  }
+
+  private static int compare(CanonicalTreeParser p, Entry e) {
+    return Paths.compare(
+        p.getEntryPathBuffer(),
+        0,
+        p.getEntryPathLength(),
+        p.getEntryRawMode(),
+        e.name,
+        0,
+        e.name.length,
+        e.modeBits());
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An asynchronous {@code update_manifest} request, following the update of each destination.
+ *
+ * <p>This class is thread-safe.
+ */
+class UpdateJob implements UpdateObserver {
+  enum State {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED
+  }
+
+  /** REST representation of a job. */
+  static class Info {
+    public String id;
+    public String project;
+    public String branch;
+    public State state;
+    public long created;
+    public Long started;
+    public Long finished;
+    public Map<String, DestinationInfo> destinations;
+  }
+
+  /** REST representation of the update of one destination. */
+  static class DestinationInfo {
+    public State state;
+    public String result;
+    public boolean unchanged;
+    public Map<UpdateStats.Phase, Long> phaseMillis;
+    public String error;
+  }
+
+  private final String id;
+  private final String project;
+  private final String branch;
+  private final long created;
+  private final Map<String, DestinationInfo> destinations = new LinkedHashMap<>();
+  private State state = State.QUEUED;
+  private Long started;
+  private Long finished;
+
+  /**
+   * @param project the source project, or {@code null} if the job spans all configured sources
+   * @param branch the source branch, or {@code null} if the job spans all configured sources
+   * @param destinations the destinations to update, as given by {@link ConfigEntry#getActualDest}
+   */
+  UpdateJob(String id, String project, String branch, List<String> destinations) {
+    this.id = id;
+    this.project = project;
+    this.branch = branch;
+    this.created = System.currentTimeMillis();
+    for (String destination : destinations) {
+      DestinationInfo d = new DestinationInfo();
+      d.state = State.QUEUED;
+      this.destinations.put(destination, d);
+    }
+  }
+
+  String getId() {
+    return id;
+  }
+
+  synchronized void start() {
+    state = State.RUNNING;
+    started = System.currentTimeMillis();
+  }
+
+  /** Marks the job as finished; it failed if any of its destinations did. */
+  synchronized void finish() {
+    state = State.DONE;
+    for (DestinationInfo d : destinations.values()) {
+      if (d.state != State.DONE) {
+        state = State.FAILED;
+      }
+    }
+    finished = System.currentTimeMillis();
+  }
+
+  /** Fails the job and its destinations that did not run, for a job that could not be run. */
+  synchronized void fail(String error) {
+    for (DestinationInfo d : destinations.values()) {
+      if (d.state == State.QUEUED) {
+        d.state = State.FAILED;
+        d.error = error;
+      }
+    }
+    finish();
+  }
+
+  @Override
+  public synchronized void started(ConfigEntry configEntry, String refName) {
+    destination(configEntry, refName).state = State.RUNNING;
+  }
+
+  @Override
+  public synchronized void finished(
+      ConfigEntry configEntry, String refName, UpdateStats stats, Exception error) {
+    DestinationInfo d = destination(configEntry, refName);
+    d.state = error == null ? State.DONE : State.FAILED;
+    d.result = stats.getResult();
+    d.unchanged = stats.isUnchanged();
+    d.phaseMillis = stats.getPhaseMillis();
+    if (error != null) {
+      d.error = error.getMessage() != null ? error.getMessage() : error.getClass().getName();
+    }
+  }
+
+  synchronized Info toInfo() {
+    Info info = new Info();
+    info.id = id;
+    info.project = project;
+    info.branch = branch;
+    info.state = state;
+    info.created = created;
+    info.started = started;
+    info.finished = finished;
+    info.destinations = new LinkedHashMap<>();
+    for (Map.Entry<String, DestinationInfo> e : destinations.entrySet()) {
+      DestinationInfo d = new DestinationInfo();
+      d.state = e.getValue().state;
+      d.result = e.getValue().result;
+      d.unchanged = e.getValue().unchanged;
+      d.phaseMillis = e.getValue().phaseMillis;
+      d.error = e.getValue().error;
+      info.destinations.put(e.getKey(), d);
+    }
+    return info;
+  }
+
+  private DestinationInfo destination(ConfigEntry configEntry, String refName) {
+    return destinations.computeIfAbsent(
+        configEntry.getActualDest(refName), k -> new DestinationInfo());
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The asynchronous {@code update_manifest} jobs of this server.
+ *
+ * <p>Jobs are kept in memory only, for a day after they were created and up to {@link #MAX_JOBS}
+ * of them; they don't survive a restart.
+ */
+@Singleton
+class UpdateJobs {
+  static final int MAX_JOBS = 1000;
+
+  private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis());
+  private final Cache<String, UpdateJob> jobs =
+      CacheBuilder.newBuilder().maximumSize(MAX_JOBS).expireAfterWrite(Duration.ofDays(1)).build();
+
+  /** @return a new queued job updating {@code destinations}; see {@link UpdateJob#UpdateJob} */
+  UpdateJob create(String project, String branch, List<String> destinations) {
+    UpdateJob job =
+        new UpdateJob(Long.toHexString(nextId.getAndIncrement()), project, branch, destinations);
+    jobs.put(job.getId(), job);
+    return job;
+  }
+
+  /** @return the job with {@code id}, or {@code null} if it is unknown or expired */
+  UpdateJob get(String id) {
+    return jobs.getIfPresent(id);
+  }
+
+  /** @return all known jobs, oldest first */
+  ImmutableList<UpdateJob.Info> list() {
+    return jobs.asMap().values().stream()
+        .map(UpdateJob::toInfo)
+        .sorted(Comparator.comparingLong(i -> i.created))
+        .collect(ImmutableList.toImmutableList());
+  }
+}
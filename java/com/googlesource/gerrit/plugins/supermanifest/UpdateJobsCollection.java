@@ -0,0 +1,81 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.ChildCollection;
+import com.google.gerrit.extensions.restapi.IdString;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.RestView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.permissions.GlobalPermission;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.List;
+
+/** The {@code /config/server/supermanifest~jobs} collection, readable by administrators. */
+@Singleton
+class UpdateJobsCollection implements ChildCollection<ConfigResource, UpdateJobResource> {
+  private final DynamicMap<RestView<UpdateJobResource>> views;
+  private final UpdateJobs jobs;
+  private final PermissionBackend permissionBackend;
+  private final ListJobs list;
+
+  @Inject
+  UpdateJobsCollection(
+      DynamicMap<RestView<UpdateJobResource>> views,
+      UpdateJobs jobs,
+      PermissionBackend permissionBackend) {
+    this.views = views;
+    this.jobs = jobs;
+    this.permissionBackend = permissionBackend;
+    this.list = new ListJobs();
+  }
+
+  @Override
+  public RestView<ConfigResource> list() {
+    return list;
+  }
+
+  @Override
+  public UpdateJobResource parse(ConfigResource parent, IdString id)
+      throws AuthException, ResourceNotFoundException, PermissionBackendException {
+    permissionBackend.currentUser().check(GlobalPermission.ADMINISTRATE_SERVER);
+    UpdateJob job = jobs.get(id.get());
+    if (job == null) {
+      throw new ResourceNotFoundException(id);
+    }
+    return new UpdateJobResource(job);
+  }
+
+  @Override
+  public DynamicMap<RestView<UpdateJobResource>> views() {
+    return views;
+  }
+
+  private class ListJobs implements RestReadView<ConfigResource> {
+    @Override
+    public Response<List<UpdateJob.Info>> apply(ConfigResource resource)
+        throws AuthException, PermissionBackendException {
+      permissionBackend.currentUser().check(GlobalPermission.ADMINISTRATE_SERVER);
+      return Response.ok(jobs.list());
+    }
+  }
+}
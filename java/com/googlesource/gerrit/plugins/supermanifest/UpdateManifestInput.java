@@ -0,0 +1,24 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+/** Input of the {@code update_manifest} REST view. */
+public class UpdateManifestInput {
+  /**
+   * Return {@code 202 Accepted} with a job as soon as the update is queued, instead of waiting for
+   * it to finish. The job can be polled at {@code /config/server/supermanifest~jobs/<id>}.
+   */
+  public boolean async;
+}
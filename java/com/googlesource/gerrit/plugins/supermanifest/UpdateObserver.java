@@ -0,0 +1,53 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+/**
+ * Follows the updates of the destinations for one source ref update.
+ *
+ * <p>Destinations may be updated in parallel, so implementations must be thread-safe.
+ */
+interface UpdateObserver {
+  UpdateObserver NONE = new UpdateObserver() {};
+
+  /** @return an observer notifying {@code first}, then {@code second} */
+  static UpdateObserver both(UpdateObserver first, UpdateObserver second) {
+    return new UpdateObserver() {
+      @Override
+      public void started(ConfigEntry configEntry, String refName) {
+        first.started(configEntry, refName);
+        second.started(configEntry, refName);
+      }
+
+      @Override
+      public void finished(
+          ConfigEntry configEntry, String refName, UpdateStats stats, Exception error) {
+        first.finished(configEntry, refName, stats, error);
+        second.finished(configEntry, refName, stats, error);
+      }
+    };
+  }
+
+  /** The update of {@code configEntry} for {@code refName} is about to start. */
+  default void started(ConfigEntry configEntry, String refName) {}
+
+  /**
+   * The update of {@code configEntry} for {@code refName} is done.
+   *
+   * @param error the exception that made the update fail, or {@code null} if it succeeded
+   */
+  default void finished(
+      ConfigEntry configEntry, String refName, UpdateStats stats, Exception error) {}
+}
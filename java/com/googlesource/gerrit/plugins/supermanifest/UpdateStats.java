@@ -0,0 +1,225 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What happened during the update of one destination: how long each phase took and how it ended.
+ *
+ * <p>Phases that run more than once (e.g. reading several manifest files) add up.
+ */
+class UpdateStats {
+  enum Phase {
+    /** Reading the manifest file(s) from the source repository. */
+    MANIFEST_READ,
+    /** Parsing the manifest XML into projects. */
+    PARSE,
+    /**
+     * Reading and parsing included (repo) or imported (jiri) manifests. Repo reads its includes
+     * while parsing, so for repo this time is also counted in {@link #PARSE} and {@link
+     * #TREE_BUILD}.
+     */
+    IMPORTS,
+    /** Resolving the project refs to SHA-1s. */
+    RESOLVE,
+    /**
+     * Building the superproject tree and {@code .gitmodules}. For repo with the JGit engine this
+     * covers all of RepoCommand, which also inserts the objects and updates the branch.
+     */
+    TREE_BUILD,
+    /** Writing the new objects to the destination repository. Not reported by the JGit engine. */
+    OBJECT_INSERT,
+    /** Updating the destination branch. Not reported by the JGit engine. */
+    REF_UPDATE
+  }
+
+  /**
+   * How much work an update did. Reads and lookups shared with other destinations through {@link
+   * SourceCache} are counted only by the update that did them.
+   */
+  enum Counter {
+    /** Projects in the manifest, after group filtering. */
+    PROJECTS,
+    /** Manifest files parsed, including included or imported ones. */
+    MANIFEST_FILES,
+    /** Bytes of manifest files read from the repositories. */
+    BYTES_READ,
+    /** Repositories opened. */
+    REPOS_OPENED,
+    /** Requests to resolve a project ref to a SHA-1. */
+    SHA1_CALLS,
+    /** Submodules in the superproject, whether it changed or not. */
+    SUBMODULES,
+    /** Projects skipped because they are nested in, or contain, another project (jiri only). */
+    NESTED_PROJECTS
+  }
+
+  /** Stops timing a phase when closed. */
+  interface Timer extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /** A timer that records nothing. */
+  static final Timer NOT_TIMED = () -> {};
+
+  private final String destination;
+  private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+  private final Map<Counter, Long> counts = new EnumMap<>(Counter.class);
+  private final long startMillis = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private long durationNanos = -1;
+  private String result = "NOT_ATTEMPTED";
+  private boolean unchanged;
+  private String sourceRevision;
+  private long cacheHits;
+  private long cacheMisses;
+
+  UpdateStats() {
+    this("");
+  }
+
+  /** @param destination the destination being updated, see {@link ConfigEntry#getActualDest} */
+  UpdateStats(String destination) {
+    this.destination = destination;
+  }
+
+  /**
+   * Starts timing {@code phase}; the time is recorded when the returned timer is closed. The phase
+   * is also recorded as a JFR event, if enabled.
+   */
+  Timer time(Phase phase) {
+    long start = System.nanoTime();
+    SuperManifestEvents.PhaseEvent event = new SuperManifestEvents.PhaseEvent();
+    if (!event.isEnabled()) {
+      return () -> add(phase, System.nanoTime() - start);
+    }
+
+    long bytesRead = getCount(Counter.BYTES_READ);
+    long sha1Calls = getCount(Counter.SHA1_CALLS);
+    event.begin();
+    return () -> {
+      add(phase, System.nanoTime() - start);
+      event.end();
+      if (event.shouldCommit()) {
+        event.destination = destination;
+        event.phase = phase.name();
+        event.bytesRead = getCount(Counter.BYTES_READ) - bytesRead;
+        event.sha1Calls = getCount(Counter.SHA1_CALLS) - sha1Calls;
+        event.commit();
+      }
+    };
+  }
+
+  synchronized void add(Phase phase, long nanos) {
+    phaseNanos.merge(phase, nanos, Long::sum);
+  }
+
+  synchronized ImmutableMap<Phase, Long> getPhaseNanos() {
+    return ImmutableMap.copyOf(phaseNanos);
+  }
+
+  synchronized ImmutableMap<Phase, Long> getPhaseMillis() {
+    ImmutableMap.Builder<Phase, Long> b = ImmutableMap.builder();
+    for (Map.Entry<Phase, Long> e : phaseNanos.entrySet()) {
+      b.put(e.getKey(), TimeUnit.NANOSECONDS.toMillis(e.getValue()));
+    }
+    return b.build();
+  }
+
+  synchronized void count(Counter counter, long n) {
+    counts.merge(counter, n, Long::sum);
+  }
+
+  synchronized long getCount(Counter counter) {
+    return counts.getOrDefault(counter, 0L);
+  }
+
+  /** @return the value of every counter, including the ones that were never incremented */
+  synchronized ImmutableMap<Counter, Long> getCounts() {
+    ImmutableMap.Builder<Counter, Long> b = ImmutableMap.builder();
+    for (Counter c : Counter.values()) {
+      b.put(c, counts.getOrDefault(c, 0L));
+    }
+    return b.build();
+  }
+
+  /** Records a lookup in the {@link SourceCache}. */
+  synchronized void recordCacheLookup(boolean hit) {
+    if (hit) {
+      cacheHits++;
+    } else {
+      cacheMisses++;
+    }
+  }
+
+  synchronized long getCacheHits() {
+    return cacheHits;
+  }
+
+  synchronized long getCacheMisses() {
+    return cacheMisses;
+  }
+
+  /** Marks the end of the update, which started when this object was created. */
+  synchronized void stop() {
+    durationNanos = System.nanoTime() - startNanos;
+  }
+
+  String getDestination() {
+    return destination;
+  }
+
+  long getStartMillis() {
+    return startMillis;
+  }
+
+  /** @return the time from creation to {@link #stop}, or up to now if not stopped yet */
+  synchronized long getDurationMillis() {
+    long nanos = durationNanos >= 0 ? durationNanos : System.nanoTime() - startNanos;
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  /** Sets the SHA-1 of the source ref the update was computed from. */
+  synchronized void setSourceRevision(String sourceRevision) {
+    this.sourceRevision = sourceRevision;
+  }
+
+  synchronized String getSourceRevision() {
+    return sourceRevision;
+  }
+
+  /** Sets the result of the update, as reported by the {@code update_result} metric. */
+  synchronized void setResult(String result) {
+    this.result = result;
+  }
+
+  synchronized String getResult() {
+    return result;
+  }
+
+  /** Records that the destination was already up to date, so nothing was written. */
+  synchronized void setUnchanged() {
+    unchanged = true;
+  }
+
+  synchronized boolean isUnchanged() {
+    return unchanged;
+  }
+}
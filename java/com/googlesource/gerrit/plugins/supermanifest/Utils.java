@@ -1,34 +0,0 @@
-// Copyright (C) 2017 The Android Open Source Project
-//
-// Licensed under the Apache License, Version 2.0 (the "License");
-// you may not use this file except in compliance with the License.
-// You may obtain a copy of the License at
-//
-// http://www.apache.org/licenses/LICENSE-2.0
-//
-// Unless required by applicable law or agreed to in writing, software
-// distributed under the License is distributed on an "AS IS" BASIS,
-// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-// See the License for the specific language governing permissions and
-// limitations under the License.
-
-package com.googlesource.gerrit.plugins.supermanifest;
-
-import java.io.IOException;
-import org.eclipse.jgit.errors.RevisionSyntaxException;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectReader;
-import org.eclipse.jgit.lib.Repository;
-
-class Utils {
-  public static byte[] readBlob(Repository repo, String idStr) throws IOException {
-    try (ObjectReader reader = repo.newObjectReader()) {
-      ObjectId id = repo.resolve(idStr);
-      if (id == null) {
-        throw new RevisionSyntaxException(
-            String.format("repo %s does not have %s", repo.toString(), idStr), idStr);
-      }
-      return reader.open(id).getCachedBytes(Integer.MAX_VALUE);
-    }
-  }
-}
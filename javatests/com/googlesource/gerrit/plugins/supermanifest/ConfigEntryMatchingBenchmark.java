@@ -0,0 +1,145 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of finding the configuration entries fed by a ref update, which runs for every ref update
+ * on the server.
+ *
+ * <p>The entries are a mix of fixed branches, wildcards and wildcards with many excludes. The ref
+ * updates follow what a busy server sees: mostly patch sets and branches of projects that feed no
+ * superproject, and a few branches of manifest projects. Each invocation processes {@link
+ * #UPDATES} ref updates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConfigEntryMatchingBenchmark {
+  static final int UPDATES = 1024;
+
+  private static final int PROJECTS = 5000;
+  private static final int BRANCHES = 50;
+  private static final int EXCLUDES = 20;
+
+  @Param({"10", "100", "1000", "5000"})
+  int entries;
+
+  private ImmutableSet<ConfigEntry> config;
+  private String[] projects;
+  private String[] refs;
+
+  @Setup
+  public void setUp() throws Exception {
+    Random random = new Random(42);
+    int manifests = Math.max(1, entries / 10);
+
+    Config cfg = new Config();
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < entries; i++) {
+      String src = "manifest/" + (i % manifests);
+      String name;
+      switch (i % 3) {
+        case 0:
+          String ref = "refs/heads/" + branch(i % BRANCHES);
+          name = "superproject/" + i + ":" + ref;
+          cfg.setString(ConfigEntry.SECTION_NAME, name, "srcRef", ref);
+          break;
+        case 1:
+          name = "superproject/" + i + ":refs/heads/*";
+          break;
+        default:
+          name = "superproject/" + i + ":refs/heads/*";
+          List<String> excludes = new ArrayList<>();
+          for (int e = 0; e < EXCLUDES; e++) {
+            excludes.add(e % 2 == 0 ? "refs/heads/" + branch(e) : "refs/heads/" + e + "-*");
+          }
+          cfg.setString(ConfigEntry.SECTION_NAME, name, "exclude", String.join(",", excludes));
+          break;
+      }
+      cfg.setString(ConfigEntry.SECTION_NAME, name, "srcRepo", src);
+      cfg.setString(ConfigEntry.SECTION_NAME, name, "srcPath", "default.xml");
+      names.add(name);
+    }
+
+    ImmutableSet.Builder<ConfigEntry> b = ImmutableSet.builder();
+    for (String name : names) {
+      b.add(new ConfigEntry(cfg, name));
+    }
+    config = b.build();
+
+    projects = new String[UPDATES];
+    refs = new String[UPDATES];
+    for (int i = 0; i < UPDATES; i++) {
+      int kind = random.nextInt(100);
+      if (kind < 80) {
+        // Uploads.
+        int change = random.nextInt(1_000_000);
+        projects[i] = "project/" + random.nextInt(PROJECTS);
+        refs[i] = String.format("refs/changes/%02d/%d/%d", change % 100, change, 1 + i % 5);
+      } else if (kind < 95) {
+        // Submits.
+        projects[i] = "project/" + random.nextInt(PROJECTS);
+        refs[i] = "refs/heads/" + branch(random.nextInt(BRANCHES));
+      } else {
+        // Manifest updates.
+        projects[i] = "manifest/" + random.nextInt(manifests);
+        refs[i] = "refs/heads/" + branch(random.nextInt(BRANCHES));
+      }
+    }
+  }
+
+  @Benchmark
+  public void matchesSource(Blackhole bh) {
+    for (int i = 0; i < UPDATES; i++) {
+      for (ConfigEntry e : config) {
+        bh.consume(e.matchesSource(projects[i], refs[i]));
+      }
+    }
+  }
+
+  @Benchmark
+  public void findRelevantConfigs(Blackhole bh) throws Exception {
+    for (int i = 0; i < UPDATES; i++) {
+      bh.consume(
+          SuperManifestRefUpdatedListener.findRelevantConfigs(config, projects[i], refs[i]));
+    }
+  }
+
+  private static String branch(int i) {
+    return i == 0 ? "main" : "release-" + i;
+  }
+}
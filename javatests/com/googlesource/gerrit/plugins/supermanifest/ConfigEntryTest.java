@@ -75,6 +75,7 @@ public class ConfigEntryTest {
     assertThat(entry.matchesSource("otherproject", "refs/heads/c")).isFalse();
     assertThat(entry.getActualDestBranch("refs/heads/a")).isEqualTo("a");
     assertThat(entry.getActualDestBranch("refs/heads/b")).isEqualTo("b");
+    assertThat(entry.getActualDest("refs/heads/a")).isEqualTo("superproject:a");
   }
 
   @Test
@@ -236,6 +237,25 @@ public class ConfigEntryTest {
     assertThat(entry.recordRemoteBranch).isFalse();
   }
 
+  @Test
+  public void repoEngine() throws ConfigInvalidException {
+    String conf =
+        getBasicConf(
+            "superproject", "refs/heads/nyc", "manifest", "refs/heads/nyc-src", "default.xml");
+    Config cfg = new Config();
+    cfg.fromText(conf);
+    assertThat(new ConfigEntry(cfg, "superproject:refs/heads/nyc").getRepoEngine())
+        .isEqualTo(ConfigEntry.RepoEngine.JGit);
+
+    cfg.fromText(conf + "  repoEngine = native\n");
+    assertThat(new ConfigEntry(cfg, "superproject:refs/heads/nyc").getRepoEngine())
+        .isEqualTo(ConfigEntry.RepoEngine.Native);
+
+    cfg.fromText(conf + "  repoEngine = fast\n");
+    assertThrows(
+        ConfigInvalidException.class, () -> new ConfigEntry(cfg, "superproject:refs/heads/nyc"));
+  }
+
   @Test
   public void matchesSource() throws ConfigInvalidException {
     StringBuilder builder =
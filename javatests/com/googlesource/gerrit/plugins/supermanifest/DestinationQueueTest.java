@@ -0,0 +1,126 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DestinationQueueTest {
+  private final DestinationQueue queue = new DestinationQueue();
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void submit_runsUpdatesOfOneDestinationInOrder() throws Exception {
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      int n = i;
+      futures.add(
+          queue.submit(
+              "superproject:master",
+              executor,
+              () -> {
+                if (running.incrementAndGet() > 1) {
+                  overlaps.incrementAndGet();
+                }
+                order.add(n);
+                running.decrementAndGet();
+              }));
+    }
+    for (CompletableFuture<Void> f : futures) {
+      f.get(10, TimeUnit.SECONDS);
+    }
+
+    assertThat(overlaps.get()).isEqualTo(0);
+    assertThat(order).hasSize(100);
+    assertThat(order).isInOrder();
+    assertThat(queue.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void submit_runsDestinationsInParallel() throws Exception {
+    CountDownLatch otherRan = new CountDownLatch(1);
+    CompletableFuture<Void> waiting =
+        queue.submit(
+            "superproject:master",
+            executor,
+            () -> assertThat(otherRan.await(10, TimeUnit.SECONDS)).isTrue());
+    assertThat(queue.size()).isEqualTo(1);
+
+    queue.submit("superproject:stable", executor, otherRan::countDown).get(10, TimeUnit.SECONDS);
+    waiting.get(10, TimeUnit.SECONDS);
+    assertThat(queue.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void submit_failureDoesNotStopLaterUpdates() throws Exception {
+    CompletableFuture<Void> failed =
+        queue.submit(
+            "superproject:master",
+            executor,
+            () -> {
+              throw new IOException("broken");
+            });
+    AtomicInteger ran = new AtomicInteger();
+    queue.submit("superproject:master", executor, ran::incrementAndGet).get(10, TimeUnit.SECONDS);
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get());
+    assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+    assertThat(ran.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void submit_rejectedUpdateFails() throws Exception {
+    ExecutorService stopped = Executors.newSingleThreadExecutor();
+    stopped.shutdown();
+    CompletableFuture<Void> rejected = queue.submit("superproject:master", stopped, () -> {});
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> rejected.get());
+    assertThat(e).hasCauseThat().isInstanceOf(RejectedExecutionException.class);
+    assertThat(queue.size()).isEqualTo(0);
+
+    AtomicInteger ran = new AtomicInteger();
+    queue
+        .submit("superproject:master", MoreExecutors.directExecutor(), ran::incrementAndGet)
+        .get(10, TimeUnit.SECONDS);
+    assertThat(ran.get()).isEqualTo(1);
+  }
+}
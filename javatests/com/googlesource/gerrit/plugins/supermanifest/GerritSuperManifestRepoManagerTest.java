@@ -35,6 +35,14 @@ public class GerritSuperManifestRepoManagerTest {
     assertThat(repo).isNotNull();
   }
 
+  @Test
+  public void getOpenedCount_countsDistinctRepos() throws Exception {
+    assertThat(superManifestRepoManager.getOpenedCount()).isEqualTo(0);
+    superManifestRepoManager.openByName(Project.nameKey("project/x"));
+    superManifestRepoManager.openByUri(CANONICAL_WEB_URL + "project/x");
+    assertThat(superManifestRepoManager.getOpenedCount()).isEqualTo(1);
+  }
+
   @Test
   public void openByUri_canonical_repoNameExcludingCanonical() throws Exception {
     Repository repo = superManifestRepoManager.openByUri(CANONICAL_WEB_URL + "project/x");
@@ -0,0 +1,126 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitmodulesWriterTest {
+  private final InMemoryRepository repo =
+      new InMemoryRepository(new DfsRepositoryDescription("superproject"));
+  private final ObjectInserter inserter = repo.newObjectInserter();
+
+  @After
+  public void tearDown() {
+    inserter.close();
+  }
+
+  @Test
+  public void set_sameAsConfig() throws Exception {
+    ImmutableList<String> values =
+        ImmutableList.of(
+            "plain",
+            "",
+            " lead",
+            "trail ",
+            "a#b",
+            "a;b",
+            "q\"uote",
+            "back\\slash",
+            "tab\tnl\nbs\b",
+            "ünï😀",
+            "\"x\"");
+    Config cfg = new Config();
+    GitmodulesWriter writer = new GitmodulesWriter();
+    for (int i = 0; i < values.size(); i++) {
+      String name = "project" + i;
+      writer.submodule(name);
+      writer.set("branch", values.get(i));
+      writer.set("shallow", true);
+      cfg.setString("submodule", name, "branch", values.get(i));
+      cfg.setBoolean("submodule", name, "shallow", true);
+    }
+
+    assertThat(contents(writer.insert(inserter))).isEqualTo(cfg.toText());
+  }
+
+  @Test
+  public void submodule_sameAsConfig() throws Exception {
+    ImmutableList<String> names =
+        ImmutableList.of(
+            "plain",
+            "",
+            " lead",
+            "with space",
+            "a#b",
+            "q\"uote",
+            "back\\slash",
+            "ünï😀",
+            "\"x\"");
+    Config cfg = new Config();
+    GitmodulesWriter writer = new GitmodulesWriter();
+    for (String name : names) {
+      writer.submodule(name);
+      writer.set("path", "path");
+      cfg.setString("submodule", name, "path", "path");
+    }
+
+    assertThat(contents(writer.insert(inserter))).isEqualTo(cfg.toText());
+  }
+
+  @Test
+  public void submodule_escapesOnlyQuotesAndBackslashes() throws Exception {
+    String name = "tab\tbs\bq\"b\\";
+    GitmodulesWriter writer = new GitmodulesWriter();
+    writer.submodule(name);
+    writer.set("path", "path");
+
+    String text = contents(writer.insert(inserter));
+    assertThat(text).isEqualTo("[submodule \"tab\tbs\bq\\\"b\\\\\"]\n\tpath = path\n");
+    Config cfg = new Config();
+    cfg.fromText(text);
+    assertThat(cfg.getSubsections("submodule")).containsExactly(name);
+  }
+
+  @Test
+  public void insert_empty() throws Exception {
+    assertThat(contents(new GitmodulesWriter().insert(inserter))).isEmpty();
+  }
+
+  @Test
+  public void submodule_rejectsNewlineAndNullByte() {
+    GitmodulesWriter writer = new GitmodulesWriter();
+    assertThrows(IllegalArgumentException.class, () -> writer.submodule("a\nb"));
+    assertThrows(IllegalArgumentException.class, () -> writer.submodule("a\0b"));
+  }
+
+  private String contents(ObjectId id) throws Exception {
+    inserter.flush();
+    return new String(repo.open(id).getBytes(), UTF_8);
+  }
+}
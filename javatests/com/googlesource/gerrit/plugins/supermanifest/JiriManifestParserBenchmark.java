@@ -0,0 +1,69 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.GerritRemoteReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link JiriManifestParser#getProjects} on synthetic import graphs. Run with {@code
+ * -prof gc} to see the allocation per parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JiriManifestParserBenchmark {
+  @Param({"1000", "10000", "50000"})
+  int projects;
+
+  @Param({"1", "50", "500"})
+  int imports;
+
+  @Param({"1", "5"})
+  int depth;
+
+  private SyntheticManifests manifests;
+
+  @Setup
+  public void setUp() throws Exception {
+    manifests = new SyntheticManifests();
+    manifests.createJiriManifest(projects, imports, depth);
+  }
+
+  @Benchmark
+  public Object getProjects() throws Exception {
+    try (GerritRemoteReader reader = manifests.newReader()) {
+      return JiriManifestParser.getProjects(
+          reader,
+          SyntheticManifests.MANIFEST_REPO,
+          SyntheticManifests.REF,
+          SyntheticManifests.ROOT);
+    }
+  }
+}
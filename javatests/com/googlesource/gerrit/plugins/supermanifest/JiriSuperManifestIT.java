@@ -19,6 +19,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.acceptance.GitUtil;
 import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
 import com.google.gerrit.acceptance.PushOneCommit;
@@ -31,12 +32,17 @@ import com.google.gerrit.extensions.api.projects.BranchApi;
 import com.google.gerrit.extensions.config.DownloadScheme;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.registration.PrivateInternals_DynamicMapImpl;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.testing.NoGitRepositoryCheckIfClosed;
 import com.google.inject.Inject;
 import com.google.inject.util.Providers;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
@@ -196,6 +202,84 @@ public class JiriSuperManifestIT extends LightweightPluginDaemonTest {
     assertThat(branch3.file("project3").getContentType()).isEqualTo("x-git/gitlink; charset=UTF-8");
   }
 
+  @Test
+  public void unchangedResolvedContentSkipsUpdate() throws Exception {
+    setupTestRepos("project");
+
+    Project.NameKey manifestKey = projectOperations.newProject().name(name("manifest")).create();
+    TestRepository<InMemoryRepository> manifestRepo = cloneProject(manifestKey, admin);
+
+    Project.NameKey superKey = projectOperations.newProject().name(name("superproject")).create();
+    cloneProject(superKey, admin);
+
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default\n"
+            + "  toolType = jiri\n");
+
+    String project0 =
+        "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" remote=\""
+            + canonicalWebUrl.get()
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" />\n";
+    String project1 =
+        "  <project name=\""
+            + testRepoKeys[1].get()
+            + "\" remote=\""
+            + canonicalWebUrl.get()
+            + testRepoKeys[1].get()
+            + "\" path=\"project2\" />\n";
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n<projects>\n"
+            + project0
+            + project1
+            + "</projects>\n</manifest>\n";
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default", xml)
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+
+    BranchApi branch = gApi.projects().name(superKey.get()).branch("refs/heads/destbranch");
+    String revision = branch.get().revision;
+    assertThat(gApi.projects().name(superKey.get()).commit(revision).get().message)
+        .contains(SuperprojectDigest.FOOTER + ": ");
+
+    // Reordered and commented, but resolves to the same submodules.
+    xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n<!-- reordered -->\n<projects>\n"
+            + project1
+            + project0
+            + "</projects>\n</manifest>\n";
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default", xml)
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+
+    assertThat(branch.get().revision).isEqualTo(revision);
+
+    // A new commit in a submodule changes the superproject.
+    TestRepository<InMemoryRepository> repo = cloneProject(testRepoKeys[0], admin);
+    pushFactory
+        .create(admin.newIdent(), repo, "Subject", "file3", "file")
+        .to("refs/heads/master")
+        .assertOkStatus();
+    adminRestSession
+        .post("/projects/" + manifestKey + "/branches/srcbranch/update_manifest")
+        .assertOK();
+
+    assertThat(branch.get().revision).isNotEqualTo(revision);
+  }
+
   @Test
   public void ImportTagWorks() throws Exception {
     setupTestRepos("project");
@@ -635,6 +719,120 @@ public class JiriSuperManifestIT extends LightweightPluginDaemonTest {
     assertThat(cfg.getString("submodule", "project3", "branch")).isNull();
   }
 
+  @Test
+  public void localHostsProbeDownloadSchemesOnce() throws Exception {
+    setupTestRepos("platform/project");
+    String realPrefix = testRepoKeys[0].get().split("/")[0];
+    TestDownloadScheme scheme = new TestDownloadScheme(URI.create(canonicalWebUrl.get()).getHost());
+    RegistrationHandle handle =
+        ((PrivateInternals_DynamicMapImpl<DownloadScheme>) downloadScheme)
+            .put("supermanifest", "https", Providers.of(scheme));
+    Config cfg;
+    try {
+      cfg = updateWithMixedHosts(realPrefix);
+    } finally {
+      handle.remove();
+    }
+
+    // The host comes from the URL of the probe, not from the URLs of the projects.
+    assertThat(scheme.requested).contains(JiriUpdater.PROBE_PROJECT);
+    assertThat(scheme.requested).doesNotContain(testRepoKeys[0].get());
+    assertThat(scheme.requested).doesNotContain(testRepoKeys[1].get());
+
+    assertThat(cfg.getString("submodule", "project1", "url"))
+        .isEqualTo("../" + realPrefix + "/project0");
+    // Both checkouts of the repository get the same URL.
+    assertThat(cfg.getString("submodule", "project1-copy", "url"))
+        .isEqualTo("../" + realPrefix + "/project0");
+    assertThat(cfg.getString("submodule", "project2", "url"))
+        .isEqualTo("../" + realPrefix + "/project1");
+    assertThat(cfg.getString("submodule", "project3", "url")).isEqualTo("https://external/repo");
+  }
+
+  @Test
+  public void localHostsFallBackToPerProjectUrls() throws Exception {
+    setupTestRepos("platform/project");
+    String realPrefix = testRepoKeys[0].get().split("/")[0];
+    // Gives no URL for the probe, so the schemes are asked for every project.
+    TestDownloadScheme scheme =
+        new TestDownloadScheme(
+            URI.create(canonicalWebUrl.get()).getHost(), ImmutableSet.of(testRepoKeys[0].get()));
+    RegistrationHandle handle =
+        ((PrivateInternals_DynamicMapImpl<DownloadScheme>) downloadScheme)
+            .put("supermanifest", "https", Providers.of(scheme));
+    Config cfg;
+    try {
+      cfg = updateWithMixedHosts(realPrefix);
+    } finally {
+      handle.remove();
+    }
+
+    assertThat(scheme.requested).contains(JiriUpdater.PROBE_PROJECT);
+    assertThat(scheme.requested).contains(testRepoKeys[0].get());
+    assertThat(scheme.requested).contains(testRepoKeys[1].get());
+
+    assertThat(cfg.getString("submodule", "project1", "url"))
+        .isEqualTo("../" + realPrefix + "/project0");
+    assertThat(cfg.getString("submodule", "project1-copy", "url"))
+        .isEqualTo("../" + realPrefix + "/project0");
+    // On this host, but the scheme gives no URL for it.
+    assertThat(cfg.getString("submodule", "project2", "url"))
+        .isEqualTo(canonicalWebUrl.get() + testRepoKeys[1].get());
+    assertThat(cfg.getString("submodule", "project3", "url")).isEqualTo("https://external/repo");
+  }
+
+  /**
+   * Writes a superproject with two checkouts of the first test repository, the second test
+   * repository, and an external repository, all with absolute URLs.
+   *
+   * @return the {@code .gitmodules} of the superproject
+   */
+  private Config updateWithMixedHosts(String realPrefix) throws Exception {
+    Project.NameKey manifestKey =
+        projectOperations.newProject().name(name(realPrefix + "/manifest")).create();
+    TestRepository<InMemoryRepository> manifestRepo = cloneProject(manifestKey, admin);
+
+    Project.NameKey superKey = projectOperations.newProject().name(name("superproject")).create();
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default\n"
+            + "  toolType = jiri\n");
+
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n<projects>\n"
+            + "<project name=\"local1\" remote=\""
+            + canonicalWebUrl.get()
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" />\n"
+            + "<project name=\"local1-copy\" remote=\""
+            + canonicalWebUrl.get()
+            + testRepoKeys[0].get()
+            + "\" path=\"project1-copy\" />\n"
+            + "<project name=\"local2\" remote=\""
+            + canonicalWebUrl.get()
+            + testRepoKeys[1].get()
+            + "\" path=\"project2\" />\n"
+            + "<project name=\"external\""
+            + " remote=\"https://external/repo\""
+            + " revision=\"c438d02cdf08a08fe29550cb11cb6ae8190919f1\""
+            + " path=\"project3\" />\n"
+            + "</projects>\n</manifest>\n";
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default", xml)
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+
+    BranchApi branch = gApi.projects().name(superKey.get()).branch("refs/heads/destbranch");
+    return new BlobBasedConfig(new Config(), branch.file(".gitmodules").asString().getBytes(UTF_8));
+  }
+
   @Test
   public void manifestIncludesOtherManifest() throws Exception {
     setupTestRepos("project");
@@ -776,13 +974,25 @@ public class JiriSuperManifestIT extends LightweightPluginDaemonTest {
   private static class TestDownloadScheme extends DownloadScheme {
 
     private String host;
+    // Projects the scheme gives a URL for, null for all of them.
+    private Set<String> projects;
+    final List<String> requested = Collections.synchronizedList(new ArrayList<>());
 
     public TestDownloadScheme(String host) {
+      this(host, null);
+    }
+
+    public TestDownloadScheme(String host, Set<String> projects) {
       this.host = host;
+      this.projects = projects;
     }
 
     @Override
     public String getUrl(String project) {
+      requested.add(project);
+      if (projects != null && !projects.contains(project)) {
+        return null;
+      }
       return "https://" + this.host + "/" + project;
     }
 
@@ -0,0 +1,340 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.googlesource.gerrit.plugins.supermanifest.RepoUpdater.SUPERMANIFEST_STAMP;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.acceptance.GitUtil;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.config.GerritConfig;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.common.AccountInfo;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.testing.NoGitRepositoryCheckIfClosed;
+import com.google.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Test;
+
+/**
+ * Replays a generated stream of ref updates into {@link SuperManifestRefUpdatedListener}, at a
+ * fixed rate, and reports how the listener kept up.
+ *
+ * <p>The stream mixes manifest pushes, pushes to unrelated projects and NoteDb meta ref updates.
+ * Manifest pushes write a new manifest commit before the event is sent; the other refs are not
+ * written, as the listener does not read them. Events are sent from several threads, like
+ * concurrent pushes.
+ *
+ * <p>This is a load test, so it is left out of the regular test target. Run it with {@code bazel
+ * test plugins/supermanifest:supermanifest_push_storm}; the size of the storm is set with system
+ * properties, passed with {@code --jvmopt=-D...}:
+ *
+ * <ul>
+ *   <li>{@code supermanifest.storm.events}: number of events (default 200)
+ *   <li>{@code supermanifest.storm.rate}: events per second (default 50)
+ *   <li>{@code supermanifest.storm.manifestPercent}: share of manifest pushes (default 10)
+ *   <li>{@code supermanifest.storm.metaPercent}: share of NoteDb meta refs (default 40)
+ *   <li>{@code supermanifest.storm.senders}: threads sending events (default 8)
+ *   <li>{@code supermanifest.storm.destinations}: superprojects fed by the manifest (default 2)
+ * </ul>
+ */
+@TestPlugin(
+    name = "supermanifest",
+    sysModule = "com.googlesource.gerrit.plugins.supermanifest.SuperManifestModule")
+@NoGitRepositoryCheckIfClosed
+public class PushStormIT extends LightweightPluginDaemonTest {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String SRC_REF = "refs/heads/srcbranch";
+  private static final String DEST_REF = "refs/heads/destbranch";
+
+  private final int events = Integer.getInteger("supermanifest.storm.events", 200);
+  private final int rate = Integer.getInteger("supermanifest.storm.rate", 50);
+  private final int manifestPercent = Integer.getInteger("supermanifest.storm.manifestPercent", 10);
+  private final int metaPercent = Integer.getInteger("supermanifest.storm.metaPercent", 40);
+  private final int senders = Integer.getInteger("supermanifest.storm.senders", 8);
+  private final int destinations = Integer.getInteger("supermanifest.storm.destinations", 2);
+
+  @Inject private ProjectOperations projectOperations;
+
+  private Project.NameKey projectKey;
+  private Project.NameKey manifestKey;
+  private Project.NameKey[] superKeys;
+  private SuperManifestRefUpdatedListener listener;
+  private int manifestVersion;
+  private ObjectId manifestHead = ObjectId.zeroId();
+
+  // Keep every run, to check that none failed.
+  @Test
+  @GerritConfig(name = "plugin.supermanifest.historySize", value = "100000")
+  public void pushStorm() throws Exception {
+    setUpRepos();
+    listener = plugin.getSysInjector().getInstance(SuperManifestRefUpdatedListener.class);
+
+    Random random = new Random(42);
+    List<Event> stream = new ArrayList<>(events);
+    for (int i = 0; i < events; i++) {
+      int kind = random.nextInt(100);
+      if (kind < manifestPercent) {
+        stream.add(new Event(manifestKey.get(), SRC_REF));
+      } else if (kind < manifestPercent + metaPercent) {
+        stream.add(new Event(projectKey.get(), RefNames.changeMetaRef(Change.id(1 + i))));
+      } else if (kind % 2 == 0) {
+        PatchSet.Id ps = PatchSet.id(Change.id(1 + i), 1);
+        stream.add(new Event(projectKey.get(), RefNames.patchSetRef(ps)));
+      } else {
+        stream.add(new Event(projectKey.get(), "refs/heads/master"));
+      }
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(senders);
+    List<Future<Long>> lags = new ArrayList<>(events);
+    long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < events; i++) {
+        long scheduled = start + i * intervalNanos;
+        LockSupport.parkNanos(scheduled - System.nanoTime());
+        Event event = stream.get(i);
+        lags.add(pool.submit(() -> send(event, scheduled)));
+      }
+
+      List<Long> lagMillis = new ArrayList<>(events);
+      for (Future<Long> lag : lags) {
+        lagMillis.add(TimeUnit.NANOSECONDS.toMillis(lag.get(5, TimeUnit.MINUTES)));
+      }
+      long elapsedNanos = System.nanoTime() - start;
+      lagMillis.sort(null);
+
+      int manifestPushes = manifestVersion;
+      ImmutableList.Builder<RecentRuns.Run> runs = ImmutableList.builder();
+      for (Map.Entry<String, ImmutableList<RecentRuns.Run>> e :
+          plugin.getSysInjector().getInstance(RecentRuns.class).get().entrySet()) {
+        for (RecentRuns.Run run : e.getValue()) {
+          assertWithMessage("run of %s: %s", e.getKey(), run.error)
+              .that(run.result)
+              .isEqualTo("OK");
+        }
+        runs.addAll(e.getValue());
+      }
+
+      int commits = 0;
+      for (Project.NameKey superKey : superKeys) {
+        int n = countCommits(superKey);
+        commits += n;
+        if (manifestPushes > 0) {
+          assertWithMessage("commits in %s", superKey).that(n).isAtLeast(1);
+          // Updates read the manifest branch when they run, so the last one has the last push.
+          String stamp =
+              gApi.projects()
+                  .name(superKey.get())
+                  .branch(DEST_REF)
+                  .file(SUPERMANIFEST_STAMP)
+                  .asString();
+          assertThat(stamp)
+              .isEqualTo(manifestKey.get() + " " + SRC_REF + " " + manifestHead.name());
+        }
+      }
+      // Every event runs one update per destination. An update reads the manifest branch when it
+      // runs, so it can pick up later pushes and leave their updates with nothing to write.
+      assertThat(commits).isAtMost(manifestPushes * superKeys.length);
+      assertThat(runs.build().size()).isEqualTo(manifestPushes * superKeys.length);
+
+      logger.atInfo().log(
+          "push storm: %d events (%d manifest pushes) in %d ms, %.1f events/s;"
+              + " lag p50 %d ms, p90 %d ms, p99 %d ms, max %d ms;"
+              + " %d superproject commits for %d destinations",
+          events,
+          manifestPushes,
+          TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+          events * 1e9 / elapsedNanos,
+          percentile(lagMillis, 50),
+          percentile(lagMillis, 90),
+          percentile(lagMillis, 99),
+          lagMillis.get(lagMillis.size() - 1),
+          commits,
+          superKeys.length);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Sends {@code event}, after writing a new manifest if it is a manifest push.
+   *
+   * @return the time from {@code scheduled} until the listener returned, in ns
+   */
+  private long send(Event event, long scheduled) throws Exception {
+    if (event.getProjectName().equals(manifestKey.get())) {
+      pushManifest(event);
+    }
+    listener.onGitReferenceUpdated(event);
+    return System.nanoTime() - scheduled;
+  }
+
+  private synchronized void pushManifest(Event event) throws Exception {
+    // Each version moves the project, so that every push changes the superproject.
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + "  <remote name=\"origin\" fetch=\""
+            + canonicalWebUrl.get()
+            + "\" />\n"
+            + "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n"
+            + "  <project name=\""
+            + projectKey.get()
+            + "\" path=\"project"
+            + ++manifestVersion
+            + "\" />\n"
+            + "</manifest>\n";
+    try (Repository repo = repoManager.openRepository(manifestKey);
+        TestRepository<Repository> git = new TestRepository<>(repo)) {
+      RevCommit c = git.branch(SRC_REF).commit().add("default.xml", xml).create();
+      event.oldObjectId = manifestHead;
+      event.newObjectId = c;
+      manifestHead = c;
+    }
+  }
+
+  private void setUpRepos() throws Exception {
+    projectKey = projectOperations.newProject().name(name("project")).create();
+    TestRepository<InMemoryRepository> repo = cloneProject(projectKey, admin);
+    pushFactory
+        .create(admin.newIdent(), repo, "Subject", "file", "file")
+        .to("refs/heads/master")
+        .assertOkStatus();
+
+    manifestKey = projectOperations.newProject().name(name("manifest")).create();
+    StringBuilder config = new StringBuilder();
+    superKeys = new Project.NameKey[destinations];
+    for (int i = 0; i < destinations; i++) {
+      superKeys[i] = projectOperations.newProject().name(name("superproject" + i)).create();
+      config
+          .append("[superproject \"")
+          .append(superKeys[i].get())
+          .append(":")
+          .append(DEST_REF)
+          .append("\"]\n  srcRepo = ")
+          .append(manifestKey.get())
+          .append("\n  srcRef = ")
+          .append(SRC_REF)
+          .append("\n  srcPath = default.xml\n");
+    }
+
+    TestRepository<InMemoryRepository> allProjectRepo = cloneProject(allProjects, admin);
+    GitUtil.fetch(allProjectRepo, RefNames.REFS_CONFIG + ":config");
+    allProjectRepo.reset("config");
+    pushFactory
+        .create(
+            admin.newIdent(), allProjectRepo, "Subject", "supermanifest.config", config.toString())
+        .to(RefNames.REFS_CONFIG)
+        .assertOkStatus();
+  }
+
+  private int countCommits(Project.NameKey key) throws Exception {
+    try (Repository repo = repoManager.openRepository(key);
+        RevWalk rw = new RevWalk(repo)) {
+      ObjectId head = repo.resolve(DEST_REF);
+      if (head == null) {
+        return 0;
+      }
+      rw.markStart(rw.parseCommit(head));
+      int n = 0;
+      while (rw.next() != null) {
+        n++;
+      }
+      return n;
+    }
+  }
+
+  private static long percentile(List<Long> sorted, int p) {
+    return sorted.get(Math.min(sorted.size() - 1, sorted.size() * p / 100));
+  }
+
+  /** A ref update, as sent by Gerrit after a push. */
+  private static class Event implements GitReferenceUpdatedListener.Event {
+    private final String projectName;
+    private final String refName;
+    ObjectId oldObjectId = ObjectId.zeroId();
+    ObjectId newObjectId = ObjectId.zeroId();
+
+    Event(String projectName, String refName) {
+      this.projectName = projectName;
+      this.refName = refName;
+    }
+
+    @Override
+    public String getProjectName() {
+      return projectName;
+    }
+
+    @Override
+    public String getRefName() {
+      return refName;
+    }
+
+    @Override
+    public String getOldObjectId() {
+      return oldObjectId.name();
+    }
+
+    @Override
+    public String getNewObjectId() {
+      return newObjectId.name();
+    }
+
+    @Override
+    public boolean isCreate() {
+      return oldObjectId.equals(ObjectId.zeroId());
+    }
+
+    @Override
+    public boolean isDelete() {
+      return false;
+    }
+
+    @Override
+    public boolean isNonFastForward() {
+      return false;
+    }
+
+    @Override
+    public AccountInfo getUpdater() {
+      return null;
+    }
+  }
+}
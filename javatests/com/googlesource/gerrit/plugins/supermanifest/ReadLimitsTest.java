@@ -0,0 +1,87 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReadLimitsTest {
+  private final InMemoryRepository repo =
+      new InMemoryRepository(new DfsRepositoryDescription("repo"));
+  private final UpdateStats stats = new UpdateStats();
+
+  @Test
+  public void read_withinLimits() throws Exception {
+    ObjectId id = insert("<manifest/>");
+    try (ObjectReader reader = repo.newObjectReader()) {
+      byte[] content = new ReadLimits(11, 11).read(reader.open(id), "default.xml", stats);
+      assertThat(new String(content, UTF_8)).isEqualTo("<manifest/>");
+    }
+    assertThat(stats.getCounts()).containsEntry(UpdateStats.Counter.BYTES_READ, 11L);
+  }
+
+  @Test
+  public void read_fileTooLarge() throws Exception {
+    ObjectId id = insert("<manifest/>");
+    try (ObjectReader reader = repo.newObjectReader()) {
+      ReadLimits.ExceededException e =
+          assertThrows(
+              ReadLimits.ExceededException.class,
+              () -> new ReadLimits(10, 100).read(reader.open(id), "default.xml", stats));
+      assertThat(e).hasMessageThat().contains("default.xml is 11 bytes");
+    }
+    assertThat(stats.getCounts()).containsEntry(UpdateStats.Counter.BYTES_READ, 0L);
+  }
+
+  @Test
+  public void read_updateReadsTooMuch() throws Exception {
+    ObjectId id = insert("<manifest/>");
+    ReadLimits limits = new ReadLimits(100, 20);
+    try (ObjectReader reader = repo.newObjectReader()) {
+      limits.read(reader.open(id), "default.xml", stats);
+      assertThrows(
+          ReadLimits.ExceededException.class,
+          () -> limits.read(reader.open(id), "include.xml", stats));
+    }
+  }
+
+  @Test
+  public void zeroDisablesLimits() throws Exception {
+    ObjectId id = insert("<manifest/>");
+    try (ObjectReader reader = repo.newObjectReader()) {
+      assertThat(new ReadLimits(0, 0).read(reader.open(id), "default.xml", stats)).hasLength(11);
+    }
+  }
+
+  private ObjectId insert(String content) throws Exception {
+    try (ObjectInserter ins = repo.newObjectInserter()) {
+      ObjectId id = ins.insert(Constants.OBJ_BLOB, content.getBytes(UTF_8));
+      ins.flush();
+      return id;
+    }
+  }
+}
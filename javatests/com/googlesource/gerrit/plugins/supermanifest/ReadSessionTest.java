@@ -0,0 +1,102 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Map;
+import org.eclipse.jgit.errors.RevisionSyntaxException;
+import org.eclipse.jgit.gitrepo.RepoCommand.RemoteFile;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReadSessionTest {
+  private static final String MASTER = "refs/heads/master";
+
+  private final InMemoryRepository repo =
+      new InMemoryRepository(new DfsRepositoryDescription("manifest"));
+  private final UpdateStats stats = new UpdateStats();
+  private final ReadSession session = new ReadSession(ReadLimits.UNLIMITED, stats);
+  private TestRepository<InMemoryRepository> git;
+  private RevCommit tip;
+
+  @Before
+  public void setUp() throws Exception {
+    git = new TestRepository<>(repo);
+    tip = git.branch(MASTER).commit().add("default.xml", "<manifest/>").create();
+  }
+
+  @After
+  public void tearDown() {
+    session.close();
+    git.close();
+  }
+
+  @Test
+  public void read_byRefAndSha1() throws Exception {
+    assertThat(contents(MASTER, "default.xml")).isEqualTo("<manifest/>");
+    assertThat(contents(tip.name(), "default.xml")).isEqualTo("<manifest/>");
+    assertThat(session.read(repo, MASTER, "default.xml").getFileMode())
+        .isEqualTo(FileMode.REGULAR_FILE);
+    assertThat(stats.getCounts()).containsEntry(UpdateStats.Counter.BYTES_READ, 33L);
+  }
+
+  @Test
+  public void read_resolvesRefOnce() throws Exception {
+    assertThat(contents(MASTER, "default.xml")).isEqualTo("<manifest/>");
+    git.branch(MASTER).commit().add("default.xml", "<manifest></manifest>").create();
+    assertThat(contents(MASTER, "default.xml")).isEqualTo("<manifest/>");
+  }
+
+  @Test
+  public void read_missing_throws() throws Exception {
+    assertThrows(RevisionSyntaxException.class, () -> session.read(repo, MASTER, "missing.xml"));
+    assertThrows(
+        RevisionSyntaxException.class, () -> session.read(repo, "refs/heads/nope", "default.xml"));
+  }
+
+  @Test
+  public void readAll_returnsFoundFiles() throws Exception {
+    git.branch(MASTER)
+        .commit()
+        .add("default.xml", "<manifest/>")
+        .add("sub/a.xml", "a")
+        .add("sub/b.xml", "b")
+        .add("sub/dir/c.xml", "c")
+        .create();
+
+    Map<String, RemoteFile> files =
+        session.readAll(repo, MASTER, ImmutableSet.of("sub/a.xml", "sub/dir", "missing.xml"));
+    assertThat(files.keySet()).containsExactly("sub/a.xml");
+    assertThat(new String(files.get("sub/a.xml").getContents(), UTF_8)).isEqualTo("a");
+    assertThat(session.readAll(repo, MASTER, ImmutableSet.of())).isEmpty();
+  }
+
+  private String contents(String rev, String path) throws Exception {
+    return new String(session.read(repo, rev, path).getContents(), UTF_8);
+  }
+}
@@ -16,9 +16,12 @@ package com.googlesource.gerrit.plugins.supermanifest;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static com.googlesource.gerrit.plugins.supermanifest.RepoUpdater.SUPERMANIFEST_DIGEST;
 import static com.googlesource.gerrit.plugins.supermanifest.RepoUpdater.SUPERMANIFEST_STAMP;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.gerrit.acceptance.GitUtil;
 import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
 import com.google.gerrit.acceptance.PushOneCommit;
@@ -32,15 +35,22 @@ import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.api.projects.BranchApi;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.testing.NoGitRepositoryCheckIfClosed;
+import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.BlobBasedConfig;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.junit.Test;
 
 @TestPlugin(
@@ -85,6 +95,16 @@ public class RepoSuperManifestIT extends LightweightPluginDaemonTest {
     cloneProject(superKey, admin);
   }
 
+  private UpdateJob.Info waitForJob(UpdateJob.Info job) throws Exception {
+    for (int i = 0; i < 100 && job.finished == null; i++) {
+      Thread.sleep(100);
+      RestResponse r = adminRestSession.get("/config/server/supermanifest~jobs/" + job.id);
+      r.assertOK();
+      job = newGson().fromJson(r.getReader(), UpdateJob.Info.class);
+    }
+    return job;
+  }
+
   void pushConfig(String config) throws Exception {
     // This will trigger a configuration reload.
     TestRepository<InMemoryRepository> allProjectRepo = cloneProject(allProjects, admin);
@@ -234,6 +254,196 @@ public class RepoSuperManifestIT extends LightweightPluginDaemonTest {
     assertThrows(ResourceNotFoundException.class, () -> branch.file("project2"));
   }
 
+  @Test
+  public void unchangedSuperprojectIsNotRewritten() throws Exception {
+    setupTestRepos("project");
+
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default.xml\n");
+
+    String remoteXml = "  <remote name=\"origin\" fetch=\"" + canonicalWebUrl.get() + "\" />\n";
+    String defaultXml = "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n";
+    String project0 = "  <project name=\"" + testRepoKeys[0].get() + "\" path=\"project1\" />\n";
+    String project1 = "  <project name=\"" + testRepoKeys[1].get() + "\" path=\"project2\" />\n";
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + remoteXml
+            + defaultXml
+            + project0
+            + project1
+            + "</manifest>\n";
+
+    Result manifestPush =
+        pushFactory
+            .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", xml)
+            .to("refs/heads/srcbranch");
+    manifestPush.assertOkStatus();
+
+    BranchApi branch = gApi.projects().name(superKey.get()).branch("refs/heads/destbranch");
+    String revision = branch.get().revision;
+
+    // Reordered and commented, but resolves to the same submodules.
+    xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + "  <!-- reordered -->\n"
+            + defaultXml
+            + remoteXml
+            + project1
+            + project0
+            + "</manifest>\n";
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", xml)
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+
+    assertThat(branch.get().revision).isEqualTo(revision);
+    assertThat(branch.file(SUPERMANIFEST_STAMP).asString())
+        .isEqualTo(
+            manifestKey.get() + " refs/heads/srcbranch " + manifestPush.getCommit().getName());
+
+    // A new commit in a submodule changes the superproject.
+    TestRepository<InMemoryRepository> repo = cloneProject(testRepoKeys[0], admin);
+    pushFactory
+        .create(admin.newIdent(), repo, "Subject", "file3", "file")
+        .to("refs/heads/master")
+        .assertOkStatus();
+    adminRestSession
+        .post("/projects/" + manifestKey + "/branches/srcbranch/update_manifest")
+        .assertOK();
+
+    assertThat(branch.get().revision).isNotEqualTo(revision);
+  }
+
+  @Test
+  public void upstreamChangeRewritesSuperproject() throws Exception {
+    setupTestRepos("project");
+
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default.xml\n");
+
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + "  <remote name=\"origin\" fetch=\""
+            + canonicalWebUrl.get()
+            + "\" />\n"
+            + "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n"
+            + "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" revision=\""
+            + testRepoCommits[0]
+            + "\" upstream=\"UPSTREAM\" />\n"
+            + "</manifest>\n";
+    pushFactory
+        .create(
+            admin.newIdent(),
+            manifestRepo,
+            "Subject",
+            "default.xml",
+            xml.replace("UPSTREAM", "refs/heads/master"))
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+
+    BranchApi branch = gApi.projects().name(superKey.get()).branch("refs/heads/destbranch");
+    String revision = branch.get().revision;
+    assertThat(branch.file(".gitmodules").asString()).contains("ref = refs/heads/master");
+
+    // Same submodules at the same SHA-1s, only the recorded upstream differs.
+    pushFactory
+        .create(
+            admin.newIdent(),
+            manifestRepo,
+            "Subject",
+            "default.xml",
+            xml.replace("UPSTREAM", "refs/heads/stable"))
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+
+    assertThat(branch.get().revision).isNotEqualTo(revision);
+    assertThat(branch.file(".gitmodules").asString()).contains("ref = refs/heads/stable");
+  }
+
+  @Test
+  public void oneSourceUpdatesAllDestinations() throws Exception {
+    setupTestRepos("project");
+    Project.NameKey super2Key = projectOperations.newProject().name(name("superproject2")).create();
+    Project.NameKey super3Key = projectOperations.newProject().name(name("superproject3")).create();
+
+    StringBuilder config = new StringBuilder();
+    for (Project.NameKey dest : Arrays.asList(superKey, super2Key, super3Key)) {
+      config
+          .append("[superproject \"")
+          .append(dest.get())
+          .append(":refs/heads/destbranch\"]\n")
+          .append("  srcRepo = ")
+          .append(manifestKey.get())
+          .append("\n")
+          .append("  srcRef = refs/heads/srcbranch\n")
+          .append("  srcPath = default.xml\n");
+    }
+    pushConfig(config.toString());
+
+    String remoteXml = "  <remote name=\"origin\" fetch=\"" + canonicalWebUrl.get() + "\" />\n";
+    String defaultXml = "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n";
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + remoteXml
+            + defaultXml
+            + "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" />\n"
+            + "</manifest>\n";
+
+    Result manifestPush =
+        pushFactory
+            .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", xml)
+            .to("refs/heads/srcbranch");
+    manifestPush.assertOkStatus();
+
+    for (Project.NameKey dest : Arrays.asList(superKey, super2Key, super3Key)) {
+      BranchApi branch = gApi.projects().name(dest.get()).branch("refs/heads/destbranch");
+      assertThat(branch.file("project1").getContentType())
+          .isEqualTo("x-git/gitlink; charset=UTF-8");
+      assertThat(branch.file(SUPERMANIFEST_STAMP).asString())
+          .isEqualTo(
+              manifestKey.get() + " refs/heads/srcbranch " + manifestPush.getCommit().getName());
+    }
+
+    adminRestSession
+        .post("/projects/" + manifestKey + "/branches/srcbranch/update_manifest")
+        .assertOK();
+
+    // Each destination reports its own run.
+    RestResponse r = adminRestSession.get("/config/server/supermanifest~runs");
+    r.assertOK();
+    Map<String, List<RecentRuns.Run>> runs =
+        newGson()
+            .fromJson(
+                r.getReader(), new TypeToken<Map<String, List<RecentRuns.Run>>>() {}.getType());
+    for (Project.NameKey dest : Arrays.asList(superKey, super2Key, super3Key)) {
+      RecentRuns.Run last = runs.get(dest.get() + ":destbranch").get(0);
+      assertThat(last.trigger).isEqualTo(RecentRuns.Trigger.MANUAL);
+      assertThat(last.result).isEqualTo("OK");
+    }
+  }
+
   @Test
   public void httpEndpoint() throws Exception {
     setupTestRepos("project");
@@ -288,6 +498,221 @@ public class RepoSuperManifestIT extends LightweightPluginDaemonTest {
             manifestKey.get() + " refs/heads/srcbranch " + manifestPush.getCommit().getName());
   }
 
+  @Test
+  public void httpEndpointAsync() throws Exception {
+    setupTestRepos("project");
+
+    String remoteXml = "  <remote name=\"origin\" fetch=\"" + canonicalWebUrl.get() + "\" />\n";
+    String defaultXml = "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n";
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + remoteXml
+            + defaultXml
+            + "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" />\n"
+            + "</manifest>\n";
+
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", xml)
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default.xml\n");
+
+    UpdateManifestInput input = new UpdateManifestInput();
+    input.async = true;
+    RestResponse r =
+        adminRestSession.post(
+            "/projects/" + manifestKey + "/branches/srcbranch/update_manifest", input);
+    r.assertStatus(HttpStatus.ACCEPTED_202);
+    UpdateJob.Info job = newGson().fromJson(r.getReader(), UpdateJob.Info.class);
+    assertThat(job.destinations).containsKey(superKey.get() + ":destbranch");
+
+    userRestSession.get("/config/server/supermanifest~jobs/" + job.id).assertForbidden();
+    job = waitForJob(job);
+    assertThat(job.state).isEqualTo(UpdateJob.State.DONE);
+    UpdateJob.DestinationInfo dest = job.destinations.get(superKey.get() + ":destbranch");
+    assertThat(dest.result).isEqualTo("OK");
+    assertThat(dest.phaseMillis).containsKey(UpdateStats.Phase.TREE_BUILD);
+    assertThat(dest.error).isNull();
+
+    BranchApi branch = gApi.projects().name(superKey.get()).branch("refs/heads/destbranch");
+    assertThat(branch.file("project1").getContentType()).isEqualTo("x-git/gitlink; charset=UTF-8");
+    adminRestSession.get("/config/server/supermanifest~jobs/nope").assertNotFound();
+  }
+
+  @Test
+  public void httpEndpointAsyncWhenShuttingDown() throws Exception {
+    setupTestRepos("project");
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", "<manifest/>\n")
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default.xml\n");
+    plugin.getSysInjector().getInstance(SuperManifestExecutor.class).getJobs().shutdown();
+
+    UpdateManifestInput input = new UpdateManifestInput();
+    input.async = true;
+    adminRestSession
+        .post("/projects/" + manifestKey + "/branches/srcbranch/update_manifest", input)
+        .assertStatus(HttpStatus.SERVICE_UNAVAILABLE_503);
+
+    // The job is not left queued.
+    UpdateJob.Info job =
+        Iterables.getOnlyElement(plugin.getSysInjector().getInstance(UpdateJobs.class).list());
+    assertThat(job.state).isEqualTo(UpdateJob.State.FAILED);
+    assertThat(job.destinations.get(superKey.get() + ":destbranch").state)
+        .isEqualTo(UpdateJob.State.FAILED);
+  }
+
+  @Test
+  public void reconcile() throws Exception {
+    setupTestRepos("project");
+
+    String remoteXml = "  <remote name=\"origin\" fetch=\"" + canonicalWebUrl.get() + "\" />\n";
+    String defaultXml = "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n";
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + remoteXml
+            + defaultXml
+            + "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" />\n"
+            + "</manifest>\n";
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", xml)
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", xml)
+        .to("refs/heads/other")
+        .assertOkStatus();
+
+    // Push config after XML, so nothing is created until the reconcile.
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default.xml\n"
+            + "[superproject \""
+            + superKey.get()
+            + ":refs/heads/*\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcPath = default.xml\n"
+            + "  exclude = refs/heads/srcbranch,refs/heads/master\n");
+
+    userRestSession.post("/config/server/supermanifest~reconcile").assertForbidden();
+    RestResponse r = adminRestSession.post("/config/server/supermanifest~reconcile");
+    r.assertStatus(HttpStatus.ACCEPTED_202);
+    UpdateJob.Info job = waitForJob(newGson().fromJson(r.getReader(), UpdateJob.Info.class));
+    assertThat(job.state).isEqualTo(UpdateJob.State.DONE);
+    assertThat(job.destinations.keySet())
+        .containsExactly(superKey.get() + ":destbranch", superKey.get() + ":other");
+    assertThat(job.destinations.get(superKey.get() + ":other").unchanged).isFalse();
+
+    BranchApi branch = gApi.projects().name(superKey.get()).branch("refs/heads/other");
+    assertThat(branch.file("project1").getContentType()).isEqualTo("x-git/gitlink; charset=UTF-8");
+    branch = gApi.projects().name(superKey.get()).branch("refs/heads/destbranch");
+    assertThat(branch.file("project1").getContentType()).isEqualTo("x-git/gitlink; charset=UTF-8");
+
+    r = adminRestSession.post("/config/server/supermanifest~reconcile");
+    r.assertStatus(HttpStatus.ACCEPTED_202);
+    job = waitForJob(newGson().fromJson(r.getReader(), UpdateJob.Info.class));
+    assertThat(job.state).isEqualTo(UpdateJob.State.DONE);
+    for (UpdateJob.DestinationInfo dest : job.destinations.values()) {
+      assertThat(dest.unchanged).isTrue();
+    }
+
+    userRestSession.get("/config/server/supermanifest~runs").assertForbidden();
+    r = adminRestSession.get("/config/server/supermanifest~runs");
+    r.assertOK();
+    Map<String, List<RecentRuns.Run>> runs =
+        newGson()
+            .fromJson(
+                r.getReader(), new TypeToken<Map<String, List<RecentRuns.Run>>>() {}.getType());
+    List<RecentRuns.Run> other = runs.get(superKey.get() + ":other");
+    assertThat(other).hasSize(2);
+    assertThat(other.get(0).trigger).isEqualTo(RecentRuns.Trigger.RECONCILE);
+    assertThat(other.get(0).unchanged).isTrue();
+    assertThat(other.get(1).unchanged).isFalse();
+    assertThat(other.get(1).result).isEqualTo("OK");
+    assertThat(other.get(1).srcRef).isEqualTo("refs/heads/other");
+    assertThat(other.get(1).srcRevision).isNotNull();
+  }
+
+  @Test
+  public void reconcileDoesNotWaitForJobs() throws Exception {
+    setupTestRepos("project");
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + "  <remote name=\"origin\" fetch=\""
+            + canonicalWebUrl.get()
+            + "\" />\n"
+            + "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n"
+            + "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" />\n"
+            + "</manifest>\n";
+    pushFactory
+        .create(admin.newIdent(), manifestRepo, "Subject", "default.xml", xml)
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default.xml\n");
+
+    // Occupy the only thread running update_manifest jobs.
+    CountDownLatch release = new CountDownLatch(1);
+    plugin
+        .getSysInjector()
+        .getInstance(SuperManifestExecutor.class)
+        .getJobs()
+        .submit(
+            () -> {
+              release.await();
+              return null;
+            });
+    try {
+      RestResponse r = adminRestSession.post("/config/server/supermanifest~reconcile");
+      r.assertStatus(HttpStatus.ACCEPTED_202);
+      UpdateJob.Info job = waitForJob(newGson().fromJson(r.getReader(), UpdateJob.Info.class));
+      assertThat(job.state).isEqualTo(UpdateJob.State.DONE);
+    } finally {
+      release.countDown();
+    }
+  }
+
   @Test
   public void rawSha1Ref() throws Exception {
     setupTestRepos("project");
@@ -832,5 +1257,103 @@ public class RepoSuperManifestIT extends LightweightPluginDaemonTest {
         gApi.projects().name(superKey.get()).branch("refs/heads/main-x-release");
     assertThrows(ResourceNotFoundException.class, () -> secondConfBranch.file(".gitmodules"));
   }
+
+  @Test
+  public void nativeRepoEngineWritesSameSuperproject() throws Exception {
+    setupTestRepos("project");
+    NameKey nativeKey = projectOperations.newProject().name(name("native")).create();
+
+    String entry =
+        "  srcRepo = "
+            + manifestKey.get()
+            + "\n"
+            + "  srcRef = refs/heads/srcbranch\n"
+            + "  srcPath = default.xml\n"
+            + "  recordSubmoduleLabels = true\n";
+    pushConfig(
+        "[superproject \""
+            + superKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + entry
+            + "[superproject \""
+            + nativeKey.get()
+            + ":refs/heads/destbranch\"]\n"
+            + entry
+            + "  repoEngine = native\n");
+
+    String remoteXml = "  <remote name=\"origin\" fetch=\"" + canonicalWebUrl.get() + "\" />\n";
+    String defaultXml = "  <default remote=\"origin\" revision=\"refs/heads/master\" />\n";
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + remoteXml
+            + defaultXml
+            + "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" path=\"project1\" groups=\"a,b\">\n"
+            + "    <copyfile src=\"file0\" dest=\"copied\" />\n"
+            + "    <linkfile src=\"file0\" dest=\"links/linked\" />\n"
+            // Lands in another project, so ManifestParser drops it.
+            + "    <copyfile src=\"file0\" dest=\"project1-pinned/copied\" />\n"
+            + "  </project>\n"
+            // Nested in project1, so ManifestParser drops it with its files.
+            + "  <project name=\""
+            + testRepoKeys[1].get()
+            + "\" path=\"project1/nested\">\n"
+            + "    <copyfile src=\"file1\" dest=\"nested-copy\" />\n"
+            + "  </project>\n"
+            + "  <project name=\""
+            + testRepoKeys[0].get()
+            + "\" path=\"project1-pinned\" revision=\""
+            + testRepoCommits[0]
+            + "\" upstream=\"refs/heads/master\" />\n"
+            + "  <include name=\"extra.xml\" />\n"
+            + "</manifest>\n";
+    String extraXml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<manifest>\n"
+            + remoteXml
+            + defaultXml
+            + "  <project name=\""
+            + testRepoKeys[1].get()
+            + "\" path=\"project2\" clone-depth=\"1\">\n"
+            + "    <copyfile src=\"file1\" dest=\"included-copy\" />\n"
+            + "  </project>\n"
+            + "</manifest>\n";
+
+    pushFactory
+        .create(
+            admin.newIdent(),
+            manifestRepo,
+            "Subject",
+            ImmutableMap.of("default.xml", xml, "extra.xml", extraXml))
+        .to("refs/heads/srcbranch")
+        .assertOkStatus();
+
+    Map<String, String> expected = treeEntries(superKey, "refs/heads/destbranch");
+    assertThat(expected).containsKey("included-copy");
+    assertThat(expected).containsKey("links/linked");
+    assertThat(expected).doesNotContainKey("project1-pinned/copied");
+    assertThat(expected).doesNotContainKey("nested-copy");
+    // The digest covers the options of the entry, which differ.
+    expected.remove(SUPERMANIFEST_DIGEST);
+    Map<String, String> actual = treeEntries(nativeKey, "refs/heads/destbranch");
+    actual.remove(SUPERMANIFEST_DIGEST);
+    assertThat(actual).containsExactlyEntriesIn(expected);
+  }
+
+  private Map<String, String> treeEntries(NameKey key, String ref) throws Exception {
+    Map<String, String> entries = new TreeMap<>();
+    try (Repository repo = repoManager.openRepository(key);
+        TreeWalk tw = new TreeWalk(repo)) {
+      tw.addTree(repo.resolve(ref + "^{tree}"));
+      tw.setRecursive(true);
+      while (tw.next()) {
+        entries.put(tw.getPathString(), tw.getFileMode(0) + " " + tw.getObjectId(0).name());
+      }
+    }
+    return entries;
+  }
+
   // TODO - should add tests for all the error handling in configuration parsing?
 }
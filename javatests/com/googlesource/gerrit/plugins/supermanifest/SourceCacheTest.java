@@ -0,0 +1,89 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SourceCacheTest {
+  private static final ObjectId ID =
+      ObjectId.fromString("91f2c8cb366e21c20544f531be710fdfa5eb3afb");
+
+  private final SourceCache cache = new SourceCache();
+  private final UpdateStats stats = new UpdateStats();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Test
+  public void sha1_loadsOnce() throws Exception {
+    assertThat(cache.sha1("project/x", "refs/heads/master", stats, this::load)).isEqualTo(ID);
+    assertThat(cache.sha1("project/x", "refs/heads/master", stats, this::load)).isEqualTo(ID);
+    assertThat(loads.get()).isEqualTo(1);
+
+    assertThat(cache.sha1("project/y", "refs/heads/master", stats, this::load)).isEqualTo(ID);
+    assertThat(loads.get()).isEqualTo(2);
+    assertThat(stats.getCacheHits()).isEqualTo(1);
+    assertThat(stats.getCacheMisses()).isEqualTo(2);
+  }
+
+  @Test
+  public void sha1_cachesMissingRef() throws Exception {
+    assertThat(cache.sha1("project/x", "refs/heads/nope", stats, this::loadNull)).isNull();
+    assertThat(cache.sha1("project/x", "refs/heads/nope", stats, this::loadNull)).isNull();
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void blob_failureIsNotCached() throws Exception {
+    assertThrows(
+        IOException.class,
+        () ->
+            cache.blob(
+                "project/x",
+                "refs/heads/master",
+                "default.xml",
+                stats,
+                () -> {
+                  throw new IOException("broken");
+                }));
+
+    byte[] blob =
+        cache.blob(
+            "project/x",
+            "refs/heads/master",
+            "default.xml",
+            stats,
+            () -> "<manifest/>".getBytes(UTF_8));
+    assertThat(new String(blob, UTF_8)).isEqualTo("<manifest/>");
+  }
+
+  private ObjectId load() {
+    loads.incrementAndGet();
+    return ID;
+  }
+
+  private ObjectId loadNull() {
+    loads.incrementAndGet();
+    return null;
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SubmodulePathsTest {
+  private final SubmodulePaths paths = new SubmodulePaths();
+
+  @Test
+  public void nestedPath_rejected() {
+    paths.add("a/b");
+    assertThat(paths.accepts("a/b/c")).isFalse();
+    assertThat(paths.accepts("a/b/c/d")).isFalse();
+    assertThat(paths.accepts("a/b")).isFalse();
+  }
+
+  @Test
+  public void containingPath_rejected() {
+    paths.add("a/b/c");
+    assertThat(paths.accepts("a/b")).isFalse();
+    assertThat(paths.accepts("a")).isFalse();
+  }
+
+  @Test
+  public void siblings_accepted() {
+    paths.add("a/b");
+    assertThat(paths.accepts("a/bc")).isTrue();
+    assertThat(paths.accepts("a/c")).isTrue();
+    assertThat(paths.accepts("a-b/c")).isTrue();
+    paths.add("a/c");
+    paths.add("a-b/c");
+    assertThat(paths.accepts("a/c/d")).isFalse();
+  }
+
+  @Test
+  public void notAddedAncestor_doesNotCount() {
+    // A project that was skipped for another reason does not hide its subdirectories.
+    assertThat(paths.accepts("a")).isTrue();
+    paths.add("a/b");
+    assertThat(paths.accepts("a/c")).isTrue();
+  }
+
+  @Test
+  public void emptyComponents_throw() {
+    for (String path : new String[] {"", "/", "a//b", "/a", "a/", "a/b//c"}) {
+      assertThrows(IllegalArgumentException.class, () -> paths.accepts(path));
+      assertThrows(IllegalArgumentException.class, () -> paths.add(path));
+    }
+    paths.add("a/b");
+    assertThrows(IllegalArgumentException.class, () -> paths.accepts("a//b/c"));
+  }
+}
@@ -0,0 +1,141 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SuperprojectTreeWriterTest {
+  private static final ObjectId ID =
+      ObjectId.fromString("91f2c8cb366e21c20544f531be710fdfa5eb3afb");
+  private static final ImmutableList<String> PATHS =
+      ImmutableList.of("a/b", "a.b", "a-b/c", "a/c/d", "b", "a/b.c", "z/y/x");
+
+  private final InMemoryRepository repo =
+      new InMemoryRepository(new DfsRepositoryDescription("superproject"));
+  private final ObjectInserter inserter = repo.newObjectInserter();
+  private final ObjectReader reader = inserter.newReader();
+
+  @After
+  public void tearDown() {
+    reader.close();
+    inserter.close();
+  }
+
+  @Test
+  public void write_sameTreeAsDirCache() throws Exception {
+    DirCache index = DirCache.newInCore();
+    DirCacheBuilder builder = index.builder();
+    SuperprojectTreeWriter writer = new SuperprojectTreeWriter(reader, inserter);
+    for (String path : PATHS) {
+      DirCacheEntry e = new DirCacheEntry(path);
+      e.setObjectId(ID);
+      e.setFileMode(FileMode.GITLINK);
+      builder.add(e);
+      writer.add(path, FileMode.GITLINK, ID);
+    }
+    builder.finish();
+
+    assertThat(writer.write(null)).isEqualTo(index.writeTree(inserter));
+    // root, a, a/c, a-b, z and z/y.
+    assertThat(writer.getTrees()).isEqualTo(6);
+    assertThat(writer.getTreesWritten()).isEqualTo(6);
+  }
+
+  @Test
+  public void write_insertsOnlyChangedTrees() throws Exception {
+    SuperprojectTreeWriter first = new SuperprojectTreeWriter(reader, inserter);
+    PATHS.forEach(p -> first.add(p, FileMode.GITLINK, ID));
+    ObjectId previous = first.write(null);
+    inserter.flush();
+
+    SuperprojectTreeWriter second = new SuperprojectTreeWriter(reader, inserter);
+    PATHS.forEach(p -> second.add(p, FileMode.GITLINK, p.equals("z/y/x") ? ObjectId.zeroId() : ID));
+    assertThat(second.write(previous)).isNotEqualTo(previous);
+    // root, z and z/y.
+    assertThat(second.getTreesWritten()).isEqualTo(3);
+
+    SuperprojectTreeWriter same = new SuperprojectTreeWriter(reader, inserter);
+    PATHS.forEach(p -> same.add(p, FileMode.GITLINK, ID));
+    assertThat(same.write(previous)).isEqualTo(previous);
+    assertThat(same.getTrees()).isEqualTo(6);
+    assertThat(same.getTreesWritten()).isEqualTo(0);
+  }
+
+  @Test
+  public void write_followsAddedAndRemovedEntries() throws Exception {
+    SuperprojectTreeWriter first = new SuperprojectTreeWriter(reader, inserter);
+    PATHS.forEach(p -> first.add(p, FileMode.GITLINK, ID));
+    ObjectId previous = first.write(null);
+    inserter.flush();
+
+    // "a.b" and "a/c/d" are gone, "a/a" and "a/bb" are new, and "b" is now a file.
+    ImmutableList<String> paths = ImmutableList.of("a/a", "a/b", "a/bb", "a-b/c", "a/b.c", "z/y/x");
+    SuperprojectTreeWriter second = new SuperprojectTreeWriter(reader, inserter);
+    paths.forEach(p -> second.add(p, FileMode.GITLINK, ID));
+    second.add("b", FileMode.REGULAR_FILE, ID);
+
+    DirCache index = DirCache.newInCore();
+    DirCacheBuilder builder = index.builder();
+    for (String path : paths) {
+      DirCacheEntry e = new DirCacheEntry(path);
+      e.setObjectId(ID);
+      e.setFileMode(FileMode.GITLINK);
+      builder.add(e);
+    }
+    DirCacheEntry file = new DirCacheEntry("b");
+    file.setObjectId(ID);
+    file.setFileMode(FileMode.REGULAR_FILE);
+    builder.add(file);
+    builder.finish();
+
+    assertThat(second.write(previous)).isEqualTo(index.writeTree(inserter));
+    // root and a; a/c is gone, and a-b and z are unchanged.
+    assertThat(second.getTreesWritten()).isEqualTo(2);
+  }
+
+  @Test
+  public void add_rejectsInvalidPaths() {
+    SuperprojectTreeWriter writer = new SuperprojectTreeWriter(reader, inserter);
+    for (String path : ImmutableList.of("a//b", "/a", "a/", ".git/x", "../x", "a/.", ".GIT")) {
+      assertThrows(IllegalArgumentException.class, () -> writer.add(path, FileMode.GITLINK, ID));
+    }
+  }
+
+  @Test
+  public void add_rejectsConflicts() {
+    SuperprojectTreeWriter writer = new SuperprojectTreeWriter(reader, inserter);
+    writer.add("a/b", FileMode.GITLINK, ID);
+    assertThrows(IllegalArgumentException.class, () -> writer.add("a/b", FileMode.GITLINK, ID));
+    assertThrows(IllegalArgumentException.class, () -> writer.add("a/b/c", FileMode.GITLINK, ID));
+    assertThrows(IllegalArgumentException.class, () -> writer.add("a", FileMode.GITLINK, ID));
+  }
+}
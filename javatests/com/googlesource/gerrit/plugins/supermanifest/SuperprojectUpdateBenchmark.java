@@ -0,0 +1,156 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.plugincontext.PluginContext.PluginMetrics;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.GerritRemoteReader;
+import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.GerritSuperManifestRepoManager;
+import com.googlesource.gerrit.plugins.supermanifest.SuperManifestRefUpdatedListener.SuperManifestRepoManager;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackFile;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end cost of writing a superproject with {@link RepoUpdater} and {@link JiriUpdater}:
+ * reading and parsing the manifest, resolving the projects, building the tree and {@code
+ * .gitmodules} and writing the commit.
+ *
+ * <p>Every invocation writes to a new, empty destination repository, so nothing is skipped as up
+ * to date and the {@code objectsWritten} counter is the size of a full superproject. Run with
+ * {@code -prof gc} to see the allocation per update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SuperprojectUpdateBenchmark {
+  private static final String DEST_REPO = "superproject";
+
+  @Param({"100", "1000", "5000", "20000"})
+  int projects;
+
+  @Param({"repo", "jiri"})
+  String toolType;
+
+  private SyntheticManifests manifests;
+  private ConfigEntry entry;
+  private SubModuleUpdater updater;
+  private InMemoryRepository dest;
+
+  /** Counters reported next to the latency. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Written {
+    public long objectsWritten;
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    manifests = new SyntheticManifests();
+    manifests.createProjects(projects);
+
+    Config cfg = new Config();
+    String name = DEST_REPO + ":" + SyntheticManifests.REF;
+    cfg.setString(ConfigEntry.SECTION_NAME, name, "srcRepo", SyntheticManifests.MANIFEST_REPO);
+    cfg.setString(ConfigEntry.SECTION_NAME, name, "srcRef", SyntheticManifests.REF);
+    cfg.setString(ConfigEntry.SECTION_NAME, name, "toolType", toolType);
+
+    PersonIdent ident = new PersonIdent("Gerrit Code Review", "gerrit@example.com");
+    if (toolType.equals("repo")) {
+      manifests.createRepoManifest(projects);
+      cfg.setString(ConfigEntry.SECTION_NAME, name, "srcPath", SyntheticManifests.REPO_MANIFEST);
+      updater = new RepoUpdater(ident);
+    } else {
+      manifests.createJiriManifest(projects, 0, 1);
+      cfg.setString(ConfigEntry.SECTION_NAME, name, "srcPath", SyntheticManifests.ROOT);
+      updater =
+          new JiriUpdater(
+              ident,
+              URI.create(SyntheticManifests.CANONICAL_WEB_URL),
+              new PluginMapContext<>(DynamicMap.emptyMap(), PluginMetrics.DISABLED_INSTANCE));
+    }
+    entry = new ConfigEntry(cfg, name);
+  }
+
+  @Setup(Level.Invocation)
+  public void newDestination() {
+    dest = new InMemoryRepository(new DfsRepositoryDescription(DEST_REPO));
+  }
+
+  @Benchmark
+  public void update(Written written) throws Exception {
+    try (GerritRemoteReader reader =
+        new GerritRemoteReader(new FreshDestination(), SyntheticManifests.CANONICAL_WEB_URL)) {
+      updater.update(reader, entry, SyntheticManifests.REF);
+    }
+    for (DfsPackFile pack : dest.getObjectDatabase().getPacks()) {
+      written.objectsWritten += pack.getPackDescription().getObjectCount();
+    }
+  }
+
+  /** Opens the current {@link #dest} for the destination, and the synthetic repositories else. */
+  private class FreshDestination implements SuperManifestRepoManager {
+    private final GerritSuperManifestRepoManager sources =
+        new GerritSuperManifestRepoManager(
+            manifests.repoManager, SyntheticManifests.CANONICAL_WEB_URL, null);
+
+    @Override
+    public Repository openByUri(String uriStr) throws IOException {
+      return sources.openByUri(uriStr);
+    }
+
+    @Override
+    public Repository openByName(Project.NameKey repoName) throws IOException {
+      if (repoName.get().equals(DEST_REPO)) {
+        return dest;
+      }
+      return sources.openByName(repoName);
+    }
+
+    @Override
+    public int getOpenedCount() {
+      return sources.getOpenedCount() + 1;
+    }
+
+    @Override
+    public void close() {
+      sources.close();
+    }
+  }
+}
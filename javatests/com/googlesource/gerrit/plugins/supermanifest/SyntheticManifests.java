@@ -0,0 +1,154 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.supermanifest;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Generates manifests of a given size, and the repositories they point to, in memory.
+ *
+ * <p>For benchmarks: manifests are written as-is, without checking that they make sense to the
+ * tools beyond what the benchmarks need.
+ */
+class SyntheticManifests {
+  static final String CANONICAL_WEB_URL = "https://example.com/gerrit/";
+  static final String MANIFEST_REPO = "manifest";
+  static final String REF = "refs/heads/master";
+  static final String ROOT = "default";
+  static final String REPO_MANIFEST = "default.xml";
+
+  final InMemoryRepositoryManager repoManager = new InMemoryRepositoryManager();
+
+  /** @return a reader over the repositories of this instance, with fresh caches */
+  SuperManifestRefUpdatedListener.GerritRemoteReader newReader() {
+    return new SuperManifestRefUpdatedListener.GerritRemoteReader(
+        new SuperManifestRefUpdatedListener.GerritSuperManifestRepoManager(
+            repoManager, CANONICAL_WEB_URL, null),
+        CANONICAL_WEB_URL);
+  }
+
+  /** @return the name of the {@code i}-th project of the manifests */
+  static String projectName(int i) {
+    return String.format("platform/group%03d/project%05d", i % 100, i);
+  }
+
+  /**
+   * Writes the Jiri manifest {@link #ROOT} in {@link #MANIFEST_REPO}.
+   *
+   * <p>The root imports {@code imports} more files from the same repository, through {@code
+   * localimport}. The files are spread over {@code depth} levels: every file of level {@code n}
+   * is imported by the first file of level {@code n - 1}. The projects are spread evenly over all
+   * files.
+   */
+  void createJiriManifest(int projects, int imports, int depth) throws Exception {
+    int files = imports + 1;
+    List<StringBuilder> xml = new ArrayList<>(files);
+    for (int f = 0; f < files; f++) {
+      xml.add(new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<manifest>\n"));
+    }
+
+    for (int f = 0; f < files; f++) {
+      xml.get(f).append("<imports>\n");
+      for (int child = 1; child < files; child++) {
+        if (jiriParent(child, depth) == f) {
+          xml.get(f).append("  <localimport file=\"").append(jiriFile(child)).append("\"/>\n");
+        }
+      }
+      xml.get(f).append("</imports>\n<projects>\n");
+    }
+
+    for (int p = 0; p < projects; p++) {
+      String name = projectName(p);
+      xml.get(p % files)
+          .append("  <project name=\"")
+          .append(name)
+          .append("\" path=\"")
+          .append(name)
+          .append("\" remote=\"")
+          .append(CANONICAL_WEB_URL)
+          .append(name)
+          .append("\"/>\n");
+    }
+
+    Map<String, String> contents = new LinkedHashMap<>();
+    for (int f = 0; f < files; f++) {
+      contents.put(jiriFile(f), xml.get(f).append("</projects>\n</manifest>\n").toString());
+    }
+    commitManifest(contents);
+  }
+
+  /** Writes the repo manifest {@link #REPO_MANIFEST} in {@link #MANIFEST_REPO}. */
+  void createRepoManifest(int projects) throws Exception {
+    StringBuilder xml =
+        new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<manifest>\n")
+            .append("  <remote name=\"origin\" fetch=\"")
+            .append(CANONICAL_WEB_URL)
+            .append("\" />\n")
+            .append("  <default remote=\"origin\" revision=\"")
+            .append(REF)
+            .append("\" />\n");
+    for (int p = 0; p < projects; p++) {
+      String name = projectName(p);
+      xml.append("  <project name=\"")
+          .append(name)
+          .append("\" path=\"")
+          .append(name)
+          .append("\" />\n");
+    }
+    xml.append("</manifest>\n");
+    commitManifest(ImmutableMap.of(REPO_MANIFEST, xml.toString()));
+  }
+
+  /** Creates the repositories of the first {@code projects} projects, with {@link #REF}. */
+  void createProjects(int projects) throws Exception {
+    for (int p = 0; p < projects; p++) {
+      try (TestRepository<Repository> git = new TestRepository<>(createRepo(projectName(p)))) {
+        git.branch(REF).commit().add("README", "project " + p).create();
+      }
+    }
+  }
+
+  private void commitManifest(Map<String, String> contents) throws Exception {
+    try (TestRepository<Repository> git = new TestRepository<>(createRepo(MANIFEST_REPO))) {
+      TestRepository<Repository>.CommitBuilder commit = git.branch(REF).commit();
+      for (Map.Entry<String, String> e : contents.entrySet()) {
+        commit.add(e.getKey(), e.getValue());
+      }
+      commit.create();
+    }
+  }
+
+  Repository createRepo(String name) throws Exception {
+    return repoManager.createRepository(Project.nameKey(name));
+  }
+
+  private static String jiriFile(int f) {
+    return f == 0 ? ROOT : "imports/manifest" + f;
+  }
+
+  private static int jiriParent(int f, int depth) {
+    int level = 1 + (f - 1) % Math.max(1, depth);
+    // The first file of level n is file n.
+    return level == 1 ? 0 : level - 1;
+  }
+}